@@ -118,6 +118,119 @@ public class Configuration {
     	return this.client_id;
     }
 
+    // -------------------------------------------------------------------------------------------------------
+    // -------------------------------------------------------------------------------------------------------
+    // Precompiled property keys -----------------------------------------------------------------------------
+
+    /**
+       Creates a reusable handle for the property identified by the prefix
+       of this Configuration instance and a key. Intended for frequently
+       accessed entries, see {@link ConfigurationKey}.
+
+       @param key    Last part of the entry, must in any case be present
+       @return A handle to access the entry
+     */
+    public ConfigurationKey key (CallContext context, String key) {
+        return new ConfigurationKey(context, this.client_id, key);
+    }
+
+    /**
+       Creates a reusable handle for the property identified by a prefix
+       and a key, see {@link ConfigurationKey}. Does not search in parent
+       entries.
+
+       @param prefix First part of the entry, optionally shortened
+       @param key    Last part of the entry, must in any case be present
+       @return A handle to access the entry
+     */
+    static public ConfigurationKey key (CallContext context, String prefix, String key) {
+        return new ConfigurationKey(context, prefix, key);
+    }
+
+    /**
+       Creates a constant for the property identified by a prefix and a key,
+       which tracks changes of the entry, see {@link ConfigurationConstant}.
+       Does not search in parent entries.
+
+       @param prefix        First part of the entry, optionally shortened
+       @param key           Last part of the entry, must in any case be present
+       @param default_value Value if no entry is found
+       @return The constant, to be stored in a static final field together
+               with it's invoker, see ConfigurationConstant.getInvoker
+     */
+    static public ConfigurationConstant<String> constant (CallContext context, String prefix, String key, String default_value) {
+        return new ConfigurationConstant<String>(context, key(context, prefix, key), String.class, default_value);
+    }
+
+    static public ConfigurationConstant<Boolean> constant (CallContext context, String prefix, String key, boolean default_value) {
+        return new ConfigurationConstant<Boolean>(context, key(context, prefix, key), Boolean.class, default_value);
+    }
+
+    static public ConfigurationConstant<Integer> constant (CallContext context, String prefix, String key, int default_value) {
+        return new ConfigurationConstant<Integer>(context, key(context, prefix, key), Integer.class, default_value);
+    }
+
+    static public ConfigurationConstant<Long> constant (CallContext context, String prefix, String key, long default_value) {
+        return new ConfigurationConstant<Long>(context, key(context, prefix, key), Long.class, default_value);
+    }
+
+    // -------------------------------------------------------------------------------------------------------
+    // -------------------------------------------------------------------------------------------------------
+    // Change notifications ----------------------------------------------------------------------------------
+
+    /**
+       Registers a listener which is notified whenever entries below the
+       prefix of this Configuration instance change, see {@link
+       ConfigurationNotifier}.
+
+       @param listener The listener to notify
+       @return The subscription, to be cancelled if no longer needed
+     */
+    public ConfigurationSubscription watch (CallContext context, ConfigurationListener listener) {
+        return ConfigurationNotifier.subscribe(context, this.client_id, listener);
+    }
+
+    /**
+       Registers a listener which is notified whenever the given entry, or
+       any entry below the given prefix, changes due to a modification
+       (setPropertyEntry, setDefaultProperty, loading of properties) or a
+       reload. Notifications are delivered asynchronously and in batches,
+       see {@link ConfigurationNotifier#setExecutor}.
+
+       @param prefix_or_key A fully qualified key or prefix, null for all
+       @param listener      The listener to notify
+       @return The subscription, to be cancelled if no longer needed
+     */
+    static public ConfigurationSubscription watch (CallContext context, String prefix_or_key, ConfigurationListener listener) {
+        return ConfigurationNotifier.subscribe(context, prefix_or_key, listener);
+    }
+
+    // -------------------------------------------------------------------------------------------------------
+    // -------------------------------------------------------------------------------------------------------
+    // Field binding -----------------------------------------------------------------------------------------
+
+    /**
+       Assigns all static fields of the given class which are annotated
+       with {@link ConfigurationEntry} and keeps them up to date whenever
+       their entries change, see {@link ConfigurationBinding}.
+
+       @param target_class The class whose static fields are bound
+       @return The binding, to be cancelled if no longer needed
+     */
+    static public ConfigurationBinding bind (CallContext context, Class target_class) {
+        return new ConfigurationBinding(context, target_class, null);
+    }
+
+    /**
+       Like above, for the non static fields of the given object.
+
+       @param target The object whose fields are bound
+       @return The binding, to be cancelled if no longer needed
+     */
+    static public ConfigurationBinding bind (CallContext context, Object target) {
+        return new ConfigurationBinding(context, target.getClass(), target);
+    }
+
     // -------------------------------------------------------------------------------------------------------
     // -------------------------------------------------------------------------------------------------------
     // Typed single property access (basic getter/setter) ----------------------------------------------------
@@ -312,6 +425,17 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
      */
     static public boolean get (CallContext context, String prefix, String key, boolean default_value, boolean search_in_parents_also, boolean throw_exception) {
+        TypedPropertyValue typed = (search_in_parents_also ? null : getTypedProperty(context, prefix, key));
+        if (typed != null) {
+            if (typed == TypedPropertyValue.MISSING) {
+                if (throw_exception) {
+                    throw new ConfigurationEntryNotFound();
+                }
+                return default_value;
+            }
+            return typed.getBoolean(context, prefix, key, default_value);
+        }
+
         String property = getProperty(context, prefix, key, search_in_parents_also);
         if (property == null) {
             if (throw_exception) {
@@ -321,14 +445,7 @@ public class Configuration {
             }
         }
 
-        if (property.equals("true") || property.equals("TRUE")) {
-            return true;
-        } else if (property.equals("false") || property.equals("FALSE")) {
-            return false;
-        } else {
-            messenger.message(context, MessageTextClass.createMessageTextClass(context, ConfigurationStringPool.get(context, "0.0.4" /* Property '%(key)' contains invalid entry '%(entry)' */), "key", prefix + "." + key, "entry", property));
-            return default_value;
-        }
+        return convertToBoolean(context, prefix, key, property, default_value);
     }
 
     /**
@@ -349,6 +466,46 @@ public class Configuration {
         setProperty(context, key, value ? "true" : "false");
     }
 
+    /**
+       Utility to parse strings to boolean.
+       @param value the string to parse
+       @return the parsed value, or null if the string is invalid
+     */
+    static protected Boolean parseBoolean(String value) {
+        if (value.equals("true") || value.equals("TRUE")) {
+            return Boolean.TRUE;
+        } else if (value.equals("false") || value.equals("FALSE")) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+       Utility to convert strings to boolean.
+       @param value the string to convert
+     */
+    static protected boolean convertToBoolean(CallContext context, String prefix, String key, String value, boolean default_value) {
+        Boolean result = parseBoolean(value);
+        if (result == null) {
+            messenger.message(context, MessageTextClass.createMessageTextClass(context, ConfigurationStringPool.get(context, "0.0.4" /* Property '%(key)' contains invalid entry '%(entry)' */), "key", prefix + "." + key, "entry", value));
+            return default_value;
+        }
+        return result;
+    }
+
+    /**
+       Utility to parse strings to integer.
+       @param value the string to parse
+       @return the parsed value, or null if the string is invalid
+     */
+    static protected Integer parseInt(String value) {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
     /**
        Utility to convert strings to integer.
        @param key the string to convert
@@ -373,10 +530,7 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
      */
     public int get (CallContext context, String key, int default_value) {
-        String property = this.getProperty(context, key);
-        if (property == null) { return default_value; }
-
-        return convertToInt(context, this.client_id, key, property, default_value);
+        return get(context, this.client_id, key, default_value);
     }
 
     /**
@@ -390,12 +544,43 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
      */
     static public int get (CallContext context, String prefix, String key, int default_value) {
+        TypedPropertyValue typed = getTypedProperty(context, prefix, key);
+        if (typed != null) {
+            return (typed == TypedPropertyValue.MISSING ? default_value : typed.getInt(context, prefix, key, default_value));
+        }
+
         String property = get(context, prefix, key, null, false, false);
         if (property == null) { return default_value; }
 
         return convertToInt(context, prefix, key, property, default_value);
     }
 
+    /**
+       Utility to parse strings to long.
+       @param value the string to parse
+       @return the parsed value, or null if the string is invalid
+     */
+    static protected Long parseLong(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /**
+       Utility to convert strings to long.
+       @param value the string to convert
+     */
+    static protected long convertToLong(CallContext context, String prefix, String key, String value, long default_value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            messenger.message(context, MessageTextClass.createMessageTextClass(context, ConfigurationStringPool.get(context, "0.0.4" /* Property '%(key)' contains invalid entry '%(entry)' */), "key", prefix + "." + key, "entry", value));
+            return default_value;
+        }
+    }
+
     /**
        Get a property of type long, identified by the prefix of this
        Configuration instance and a key (see getProperty, main accessor), if
@@ -407,15 +592,29 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
     */
     public long get (CallContext context, String key, long default_value) {
-        String property = this.getProperty(context, key);
-        if (property == null) { return default_value; }
-        
-        try {
-            return Long.parseLong(property);
-        } catch (NumberFormatException nfe) {
-            messenger.message(context, MessageTextClass.createMessageTextClass(context, ConfigurationStringPool.get(context, "0.0.4" /* Property '%(key)' contains invalid entry '%(entry)' */), "key", this.client_id + "." + key, "entry", property));
-            return default_value;
+        return get(context, this.client_id, key, default_value);
+    }
+
+    /**
+       Get a property of type long, identified by a prefix and a key (see
+       getProperty, main accessor), if no entry is found, return the default
+       value. Do not search in parent entries.
+
+       @param prefix First part of the entry, optionally shortened
+       @param key    Last part of the entry, must in any case be present
+       @param default_value If no property entry is found, return this value
+       @return The value of the property entry found, or null if none was found
+     */
+    static public long get (CallContext context, String prefix, String key, long default_value) {
+        TypedPropertyValue typed = getTypedProperty(context, prefix, key);
+        if (typed != null) {
+            return (typed == TypedPropertyValue.MISSING ? default_value : typed.getLong(context, prefix, key, default_value));
         }
+
+        String property = get(context, prefix, key, null, false, false);
+        if (property == null) { return default_value; }
+
+        return convertToLong(context, prefix, key, property, default_value);
     }
 
     /**
@@ -440,16 +639,48 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
      */
     public ArrayList get (CallContext context, String key, ArrayList default_value) {
+        List<String> list = getList(context, key, null);
+        if (list == null) { return default_value; }
+
+        return new ArrayList(list);
+    }
+
+    /**
+       Get a property of type List, identified by the prefix of this
+       Configuration instance and a key (see getProperty, main accessor), if
+       no entry is found, return the default value. Do not search in
+       parent entries. The entry is split at commas and blanks.
+
+       @param key    Last part of the entry, must in any case be present
+       @param default_value If no property entry is found, return this value
+       @return The value of the property entry found, an unmodifiable list
+               which may be shared with other callers
+     */
+    public List<String> getList (CallContext context, String key, List<String> default_value) {
+        TypedPropertyValue typed = getTypedProperty(context, this.client_id, key);
+        if (typed != null) {
+            return (typed == TypedPropertyValue.MISSING ? default_value : typed.getList(context));
+        }
+
         String property = this.getProperty(context, key);
         if (property == null) { return default_value; }
 
-        StringTokenizer t = new StringTokenizer(property, ", ");
+        return parseList(property);
+    }
+
+    /**
+       Utility to split strings at commas and blanks.
+       @param value the string to split
+       @return an unmodifiable list of the parts
+     */
+    static protected List<String> parseList(String value) {
+        StringTokenizer t = new StringTokenizer(value, ", ");
         int n             = t.countTokens();
-        ArrayList l       = new ArrayList();
+        List<String> l    = new ArrayList<String>(n);
         for (int i = 0; i < n; i++) {
             l.add(t.nextToken().trim());
         }
-        return l;
+        return Collections.unmodifiableList(l);
     }
 
     // -------------------------------------------------------------------------------------------------------
@@ -490,6 +721,23 @@ public class Configuration {
     // -------------------------------------------------------------------------------------------------------
     // Property access helpers -------------------------------------------------------------------------------
 
+    /**
+       Typed property accessor. Retrieves a root entry together with it's
+       cached typed interpretations, if possible. Does not search in parents.
+
+       @param prefix First part of the entry, must in any case be present
+       @param key    Last part of the entry, must in any case be present
+       @return The typed value, TypedPropertyValue.MISSING if there is
+               definitely no such entry, or null if the entry has to be
+               retrieved via getProperty, e.g. since there is a
+               ConfigurationContext or trace mode is on
+     */
+    static protected TypedPropertyValue getTypedProperty (CallContext context, String prefix, String key) {
+        if (trace_mode || key == null || ConfigurationContext.get((Context) context) != null) { return null; }
+        String full_key = (prefix == null ? key : (new StringBuffer(prefix).append('.').append(key)).toString());
+        return RootConfiguration.getTypedPropertyEntry(context, full_key);
+    }
+
     /**
        Abbreviated version of property accessor. Does not search in parents.
 
@@ -516,8 +764,22 @@ public class Configuration {
        @return The value of the property entry found, or null if none was found
      */
     static protected String getProperty (CallContext context, String prefix, String key, boolean search_in_parents_also) {
-        String full_key = (key == null ? prefix : (prefix == null ? key : (new StringBuffer(prefix).append('.').append(key)).toString()));
         ConfigurationContext cc = ConfigurationContext.get((Context) context);
+        if (    search_in_parents_also
+             && cc == null
+             && trace_mode == false
+             && key != null
+             && (prefix == null || prefix.length() != 0)
+             && RootConfiguration.include_system_properties == false
+             && RootConfiguration.hasLayers() == false
+           ) {
+            return RootConfiguration.getPropertyEntryRecursive(context, prefix, key);
+        }
+        return getProperty (context, prefix, key, search_in_parents_also, cc);
+    }
+
+    static protected String getProperty (CallContext context, String prefix, String key, boolean search_in_parents_also, ConfigurationContext cc) {
+        String full_key = (key == null ? prefix : (prefix == null ? key : (new StringBuffer(prefix).append('.').append(key)).toString()));
         String value = (cc != null ? cc.getPropertyEntry(context, full_key) : RootConfiguration.getPropertyEntry(context, full_key));
 
         if (trace_mode) {
@@ -530,14 +792,37 @@ public class Configuration {
         if (value == null && search_in_parents_also && prefix != null && prefix.length() != 0) {
             int last_dot = prefix.lastIndexOf('.');
             if (last_dot == -1) {
-                return getProperty (context, null, key, search_in_parents_also);
+                return getProperty (context, null, key, search_in_parents_also, cc);
             } else {
-                return getProperty (context, prefix.substring(0,last_dot), key, search_in_parents_also);
+                return getProperty (context, prefix.substring(0,last_dot), key, search_in_parents_also, cc);
             }
         }
         return value;
     }
 
+    /**
+       Retrieves the keys of all root configuration entries which are equal
+       to or located below the prefix of this Configuration instance.
+       Entries of ConfigurationContexts are not included.
+
+       @return The fully qualified keys found
+     */
+    public List<String> getPropertyKeys (CallContext context) {
+        return RootConfiguration.getPropertyKeys(context, this.client_id);
+    }
+
+    /**
+       Retrieves the keys of all root configuration entries which are equal
+       to or located below the given prefix. Entries of
+       ConfigurationContexts are not included.
+
+       @param prefix A dot separated prefix, null denotes all keys
+       @return The fully qualified keys found
+     */
+    static public List<String> getPropertyKeys (CallContext context, String prefix) {
+        return RootConfiguration.getPropertyKeys(context, prefix);
+    }
+
     // -------------------------------------------------------------------------------------------------------
     // -------------------------------------------------------------------------------------------------------
     // JavaScript property evaluation ------------------------------------------------------------------------
@@ -579,54 +864,144 @@ public class Configuration {
     }
 
     /**
-       Optinally evaluates a property value as a JavaScript expression and
+       Checks whether a property value has to be passed to
+       evaluateAndCacheProperty. If there is no JavaScript evaluator, only
+       entries whose directives (see {@link DynamicProperty}) are all valid
+       and do not include "JavaScript" are passed, regardless of their
+       order (e.g. "Memo/Expr"); others are returned unevaluated, as before.
+
+       @param property A non null property value
+     */
+    static protected boolean isDynamic (String property) {
+        return (    property.length() > 2
+                 && property.charAt(0) == '\u0000'
+                 && (    javascript_evaluator != null
+                      || (    property.charAt(1) != '\u0000'
+                           && property.indexOf(':') != -1
+                           && isEvaluableWithoutJavaScript(DynamicProperty.get(null, property))
+                         )
+                    )
+               );
+    }
+
+    static protected boolean isEvaluableWithoutJavaScript (DynamicProperty dynamic) {
+        return (dynamic.getInvalidDirective() == null && dynamic.isJavaScript() == false);
+    }
+
+    /**
+       Optinally evaluates a property value as a JavaScript expression or as
+       an interpolation expression (see {@link ConfigurationExpression}) and
        optionally caches the result in the given property instance.
 
-       @param properties Where the evaluated entry is optionally stored in
+       Results of entries with a "Memo" or "TTL=<ms>" directive are kept in
+       the {@link DynamicPropertyResultCache} instead, the latter for the
+       given number of milliseconds.
+
+       The preprocessing header is parsed only once per distinct value, see
+       {@link DynamicProperty}. A cached result replaces the entry only if
+       the entry has not been modified concurrently.
+
+       @param properties Where the evaluated entry is optionally stored in,
+                         if null, the entry is stored in the root
+                         configuration
        @param key        The fully qualified property entry key
        @param property   The already retrieved value of that property
      */
     static protected String evaluateAndCacheProperty (CallContext context, Properties properties, String key, String property) {
+        return evaluateProperty(context, properties, key, property, true);
+    }
+
+    /**
+       Like evaluateAndCacheProperty, optionally without caching the result.
+
+       @param cache If false, the Cache directive is ignored
+     */
+    static protected String evaluateProperty (CallContext context, Properties properties, String key, String property, boolean cache) {
         if (property.charAt(1) == '\u0000') { return property.substring(1); }
-        boolean js       = false;
-        boolean variants = false;
-        boolean cache    = false;
-        String expression = null;
-        int pos = -1;
-        if (property.charAt(0) == '\u0000' && (pos = property.indexOf(':')) != -1) {
-            String ppdef = property.substring(1, pos);
-            for (String pp : ppdef.split("/")) {
-                switch (pp) {
-                    case "JavaScript" : js       = true; break;
-                    case "Variants"   : variants = true; break;
-                    case "Cache"      : cache    = true; break;
-                    default           : ExceptionPreConditionViolation.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Invalid property preprocessing entry '%(property)': '%(entry)'", "property", key, "entry", ppdef), ProblemState.ERROR));
-                                        break;
-                }
+        if (property.charAt(0) == '\u0000' && property.indexOf(':') != -1) {
+            DynamicProperty dynamic = DynamicProperty.get(context, property);
+            if (dynamic.getInvalidDirective() != null) {
+                ExceptionPreConditionViolation.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Invalid property preprocessing entry '%(property)': '%(entry)'", "property", key, "entry", dynamic.getHeader()), ProblemState.ERROR));
             }
-            String value = property.substring(pos + 1);
-            if (js) {
-                value = evaluateJavaScript(context, (expression = value));
-                if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  '%(expression)'  ==JS==>  '%(value)'", "key", key, "expression", expression, "value", value)); }
+            // results within a ConfigurationContext may depend on it, they are not memoized
+            boolean memoize = dynamic.isMemoized() && (cache == false || dynamic.isCache() == false)
+                              && properties == null && ConfigurationContext.get((Context) context) == null;
+            String value;
+            if (memoize && (value = DynamicPropertyResultCache.get(key, property)) != null) {
+                if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  memoized  =>  '%(value)'", "key", key, "value", value)); }
+                return value;
             }
-            if (variants) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(value == null ? "" : value);
-                RootConfiguration.appendPropertyEntryVariants(context, key, sb);
-                value = sb.toString();
-                if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  plus variants  =>  '%(value)'", "key", key, "value", value)); }
+            boolean track = (properties == null && (memoize || dynamic.isCache()));
+            boolean persist = (properties == null && dynamic.isCache() && DynamicPropertyResultStore.isEnabled());
+            DynamicPropertyResultStore.Record stored = (persist ? DynamicPropertyResultStore.lookup(context, key, property) : null);
+            if (stored != null) {
+                value = stored.value;
+                DynamicPropertyDependencies.register(key, new HashSet<String>(Arrays.asList(stored.reads)), property, value);
+                if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  stored  =>  '%(value)'", "key", key, "value", value)); }
+            } else {
+                DynamicPropertyDependencies.Frame frame = (track ? DynamicPropertyDependencies.begin() : null);
+                Set<String> reads = null;
+                try {
+                    value = computeProperty(context, key, dynamic);
+                } finally {
+                    if (frame != null) { reads = DynamicPropertyDependencies.end(frame); }
+                }
+                if (reads != null && value != null) {
+                    DynamicPropertyDependencies.register(key, reads, property, dynamic.isCache() ? value : null);
+                    if (persist) {
+                        DynamicPropertyResultStore.store(context, key, property, reads, value);
+                    }
+                }
             }
-            if (cache) {
+            if (memoize && value != null) {
+                DynamicPropertyResultCache.put(key, property, value, dynamic.getTimeToLive());
+            }
+            if (cache && dynamic.isCache()) {
                 if (value == null) {
                     ExceptionPreConditionViolation.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Cannot cache property '%(property)', result is null", "property", key), ProblemState.ERROR));
                 }
-                properties.setProperty(key, value);
+                if (properties == null) {
+                    RootConfiguration.cachePropertyEntry(context, key, property, value);
+                } else {
+                    synchronized (properties) {
+                        if (property.equals(properties.getProperty(key))) {
+                            properties.setProperty(key, value);
+                        }
+                    }
+                }
             }
             return value;
         }
         return property;
     }
 
+    /**
+       Evaluates the directives of a dynamic entry.
+     */
+    static protected String computeProperty (CallContext context, String key, DynamicProperty dynamic) {
+        String value = dynamic.getBody();
+        if (dynamic.isExpr()) {
+            ConfigurationExpression expression = dynamic.getExpression();
+            if (expression.getError() != null) {
+                ExceptionPreConditionViolation.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Invalid expression in property '%(property)': %(reason)", "property", key, "reason", expression.getError()), ProblemState.ERROR));
+            }
+            value = expression.evaluate(context);
+            if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  '%(expression)'  ==Expr==>  '%(value)'", "key", key, "expression", dynamic.getBody(), "value", value)); }
+        }
+        if (dynamic.isJavaScript()) {
+            value = (dynamic.isExpr() ? evaluateJavaScript(context, value) : dynamic.evaluateJavaScript(context));
+            if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  '%(expression)'  ==JS==>  '%(value)'", "key", key, "expression", dynamic.getBody(), "value", value)); }
+        }
+        if (dynamic.isVariants()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(value == null ? "" : value);
+            RootConfiguration.appendPropertyEntryVariants(context, key, sb);
+            value = sb.toString();
+            if (trace_mode) { messenger.message(context, MessageText.create(context, "Property '%(key)'  =>  plus variants  =>  '%(value)'", "key", key, "value", value)); }
+        }
+        return value;
+    }
+
     //
 
     /**
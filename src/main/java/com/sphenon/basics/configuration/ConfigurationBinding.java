@@ -0,0 +1,272 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.exception.*;
+import com.sphenon.basics.monitoring.ProblemState;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.*;
+import java.lang.invoke.*;
+
+/**
+   The fields of a class or of an object which are bound to configuration
+   entries, see {@link Configuration#bind} and {@link ConfigurationEntry}.
+
+   The annotated fields of a class are scanned once; for each field, the
+   key, it's type and a setter method handle are kept, so subsequent
+   bindings of the same class do not use reflection.
+
+   After the initial assignment, the binding watches the entries and
+   reassigns all affected fields in one pass whenever they change. The
+   reassignments happen on the notification executor, so bound fields
+   should be volatile. Bound objects are only weakly referenced; the
+   binding is cancelled once they are collected.
+ */
+public class ConfigurationBinding implements ConfigurationListener {
+
+    static protected class Field {
+        public ConfigurationKey key;
+        public Class            type;
+        public String           default_value;
+        public MethodHandle     getter;     // (Object)Object
+        public MethodHandle     setter;     // (Object,Object)void
+    }
+
+    static protected ConcurrentHashMap<Class,Field[]> fields_by_class = new ConcurrentHashMap<Class,Field[]>();
+
+    /**
+       Scans the annotated fields of a class, static or non static ones.
+     */
+    static protected Field[] getFields (CallContext context, Class target_class, boolean static_fields) {
+        Field[] all = fields_by_class.get(target_class);
+        if (all == null) {
+            all = scan(context, target_class);
+            Field[] previous = fields_by_class.putIfAbsent(target_class, all);
+            if (previous != null) { all = previous; }
+        }
+        List<Field> result = new ArrayList<Field>();
+        for (Field field : all) {
+            if ((field.getter.type().parameterCount() == 0) == static_fields) {
+                result.add(field);
+            }
+        }
+        return result.toArray(new Field[result.size()]);
+    }
+
+    static protected Field[] scan (CallContext context, Class target_class) {
+        List<Field> result = new ArrayList<Field>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Class current = target_class; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (java.lang.reflect.Field declared : current.getDeclaredFields()) {
+                ConfigurationEntry entry = declared.getAnnotation(ConfigurationEntry.class);
+                if (entry == null) { continue; }
+                Class type = declared.getType();
+                if (    type != String.class
+                     && type != boolean.class && type != Boolean.class
+                     && type != int.class     && type != Integer.class
+                     && type != long.class    && type != Long.class) {
+                    ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Cannot bind field '%(class).%(field)', type '%(type)' is not supported", "class", current.getName(), "field", declared.getName(), "type", type.getName()), ProblemState.ERROR));
+                    throw (ExceptionConfigurationError) null; // compiler insists
+                }
+                if (Modifier.isFinal(declared.getModifiers())) {
+                    ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Cannot bind field '%(class).%(field)', field is final", "class", current.getName(), "field", declared.getName()), ProblemState.ERROR));
+                    throw (ExceptionConfigurationError) null; // compiler insists
+                }
+                Field field = new Field();
+                field.key           = Configuration.key(context, entry.prefix().length() == 0 ? current.getName() : entry.prefix(), entry.key());
+                field.type          = type;
+                field.default_value = (entry.defaultValue().equals("\u0000") ? null : entry.defaultValue());
+                try {
+                    declared.setAccessible(true);
+                    boolean is_static = Modifier.isStatic(declared.getModifiers());
+                    MethodHandle getter = lookup.unreflectGetter(declared);
+                    MethodHandle setter = lookup.unreflectSetter(declared);
+                    if (is_static) {
+                        field.getter = getter.asType(MethodType.methodType(Object.class));
+                        field.setter = MethodHandles.dropArguments(setter.asType(MethodType.methodType(void.class, Object.class)), 0, Object.class);
+                    } else {
+                        field.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+                        field.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    }
+                } catch (IllegalAccessException iae) {
+                    Message message = SystemStateMessage.create(context, MessageText.create(context, "Cannot bind field '%(class).%(field)'", "class", current.getName(), "field", declared.getName()), ProblemState.ERROR);
+                    ExceptionConfigurationError.createAndThrow(context, iae, message);
+                    throw (ExceptionConfigurationError) null; // compiler insists
+                } catch (SecurityException se) {
+                    Message message = SystemStateMessage.create(context, MessageText.create(context, "Cannot bind field '%(class).%(field)'", "class", current.getName(), "field", declared.getName()), ProblemState.ERROR);
+                    ExceptionConfigurationError.createAndThrow(context, se, message);
+                    throw (ExceptionConfigurationError) null; // compiler insists
+                }
+                result.add(field);
+            }
+        }
+        return result.toArray(new Field[result.size()]);
+    }
+
+    protected WeakReference<Object>     target;
+    protected boolean                   is_static;
+    protected Field[]                   fields;
+    protected Object[]                  defaults;
+    protected Set<String>               keys;
+    protected ConfigurationSubscription subscription;
+
+    /**
+       @param target_class The class whose fields are bound
+       @param target       The object whose fields are bound, or null to
+                           bind the static fields of the class
+     */
+    protected ConfigurationBinding (CallContext context, Class target_class, Object target) {
+        this.is_static = (target == null);
+        this.target    = (target == null ? null : new WeakReference<Object>(target));
+        this.fields    = getFields(context, target_class, this.is_static);
+        this.defaults  = new Object[this.fields.length];
+        this.keys      = new HashSet<String>();
+
+        String common_prefix = null;
+        for (int f=0; f<this.fields.length; f++) {
+            Field field = this.fields[f];
+            this.defaults[f] = (field.default_value != null ? convert(context, field, field.default_value) : get(field, target));
+            String full_key = field.key.getFullKey(context);
+            this.keys.add(full_key);
+            common_prefix = (common_prefix == null ? full_key : commonPrefix(common_prefix, full_key));
+        }
+
+        if (this.fields.length != 0) {
+            assign(context, target, null);
+            this.subscription = ConfigurationNotifier.subscribe(context, common_prefix, this);
+        }
+    }
+
+    /**
+       @return The longest common dot separated prefix of both keys
+     */
+    static protected String commonPrefix (String a, String b) {
+        if (a.equals(b))                  { return a; }
+        if (b.startsWith(a + "."))        { return a; }
+        if (a.startsWith(b + "."))        { return b; }
+        int end = 0;
+        for (int i=0; i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i); i++) {
+            if (a.charAt(i) == '.') { end = i; }
+        }
+        return a.substring(0, end);
+    }
+
+    static protected Object get (Field field, Object target) {
+        try {
+            if (target == null) {
+                return (Object) field.getter.invokeExact();
+            }
+            return (Object) field.getter.invokeExact(target);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+       Assigns all fields, or those whose key is contained in the given set.
+     */
+    protected void assign (CallContext context, Object target, Set<String> changed_keys) {
+        for (int f=0; f<this.fields.length; f++) {
+            Field field = this.fields[f];
+            if (changed_keys != null && changed_keys.contains(field.key.getFullKey(context)) == false) { continue; }
+            Object value = fetch(context, field, this.defaults[f]);
+            if (value == null && field.type.isPrimitive()) { continue; }
+            try {
+                field.setter.invokeExact(target, value);
+            } catch (RuntimeException re) {
+                throw re;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    /**
+       Converts the default value given in the annotation to the type of
+       the field.
+     */
+    static protected Object convert (CallContext context, Field field, String value) {
+        String full_key = field.key.getFullKey(context);
+        if (field.type == boolean.class || field.type == Boolean.class) {
+            return Configuration.convertToBoolean(context, null, full_key, value, false);
+        }
+        if (field.type == int.class || field.type == Integer.class) {
+            return Configuration.convertToInt(context, null, full_key, value, 0);
+        }
+        if (field.type == long.class || field.type == Long.class) {
+            return Configuration.convertToLong(context, null, full_key, value, 0L);
+        }
+        return value;
+    }
+
+    /**
+       @param default_value The default, already of the type of the field,
+                            may be null for non primitive fields
+       @return The current value to assign
+     */
+    static protected Object fetch (CallContext context, Field field, Object default_value) {
+        if (field.type == String.class) {
+            return field.key.get(context, (String) default_value);
+        }
+        if (default_value == null) {
+            String value = field.key.getValue(context);
+            return (value == null ? null : convert(context, field, value));
+        }
+        if (field.type == boolean.class || field.type == Boolean.class) {
+            return field.key.get(context, ((Boolean) default_value).booleanValue());
+        }
+        if (field.type == int.class || field.type == Integer.class) {
+            return field.key.get(context, ((Integer) default_value).intValue());
+        }
+        return field.key.get(context, ((Long) default_value).longValue());
+    }
+
+    public void notifyConfigurationChanged (CallContext context, Set<String> changed_keys) {
+        Object target = null;
+        if (this.is_static == false) {
+            target = this.target.get();
+            if (target == null) {
+                this.cancel(context);
+                return;
+            }
+        }
+        for (String key : changed_keys) {
+            if (this.keys.contains(key)) {
+                assign(context, target, changed_keys);
+                return;
+            }
+        }
+    }
+
+    /**
+       Stops reassigning the fields on changes.
+     */
+    public void cancel (CallContext context) {
+        if (this.subscription != null) {
+            this.subscription.cancel(context);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+
+import java.util.*;
+import java.lang.invoke.*;
+
+/**
+   A configuration entry which is treated as a constant by the JIT until
+   the entry changes, see {@link Configuration#constant}.
+
+   The value is held as the target of a MutableCallSite. On first access,
+   the target resolves the entry and replaces itself by a constant method
+   handle. A modification or reload which changes the entry resets the
+   target, so that the next access resolves it again; this invalidation is
+   done synchronously while the change is published.
+
+   The JIT only folds a call site whose method handle is itself a
+   constant, i.e. read from a static final field; instance fields, even
+   final ones, are not trusted. {@link get} therefore does not fold the
+   value, it costs a field read and an indirect call. For folding, callers
+   keep the invoker in their own static final field, see {@link
+   getInvoker}. Example:
+
+   <pre>
+   static final ConfigurationConstant&lt;Boolean&gt; debug = Configuration.constant(context, "com.sphenon.basics.cache.ClassCache", "Debug", false);
+   static final MethodHandle debug_invoker = debug.getInvoker(context);
+   ...
+   if ((Boolean) (Object) debug_invoker.invokeExact(context)) { ... }   // folded
+   if (debug.get(context)) { ... }                                      // not folded
+   </pre>
+
+   The ConfigurationConstant must stay reachable as long as the invoker
+   is used, since it receives the change notifications.
+
+   Constants are intended for global settings. They are resolved in the
+   root context, i.e. ConfigurationContexts are ignored. Dynamic entries
+   are evaluated once and kept until the entry itself changes.
+ */
+public class ConfigurationConstant<T> implements ConfigurationListener {
+
+    static protected final MethodHandle RESOLVE;
+    static {
+        try {
+            RESOLVE = MethodHandles.lookup().findVirtual(ConfigurationConstant.class, "resolve", MethodType.methodType(Object.class, CallContext.class));
+        } catch (NoSuchMethodException nsme) {
+            throw new Error(nsme);
+        } catch (IllegalAccessException iae) {
+            throw new Error(iae);
+        }
+    }
+
+    protected final ConfigurationKey          key;
+    protected final Class<T>                  type;
+    protected final T                         default_value;
+    protected final MutableCallSite           call_site;
+    protected final MethodHandle              resolver;
+    protected final MethodHandle              invoker;
+    protected final ConfigurationSubscription subscription;
+    protected long                            invalidations;
+
+    protected ConfigurationConstant (CallContext context, ConfigurationKey key, Class<T> type, T default_value) {
+        this.key           = key;
+        this.type          = type;
+        this.default_value = default_value;
+        this.call_site     = new MutableCallSite(MethodType.methodType(Object.class, CallContext.class));
+        this.resolver      = RESOLVE.bindTo(this);
+        this.call_site.setTarget(this.resolver);
+        this.invoker       = this.call_site.dynamicInvoker();
+        this.subscription  = ConfigurationNotifier.subscribe(context, key.getFullKey(context), this, true);
+    }
+
+    /**
+       @return The current value of the entry, or the default value if
+               there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T get (CallContext context) {
+        try {
+            return (T) (Object) this.invoker.invokeExact(context);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+       Returns a method handle of type (CallContext)Object which yields the
+       current value. To let the JIT fold the value, store it in a static
+       final field and invoke it via invokeExact.
+
+       @return The dynamic invoker of the underlying call site
+     */
+    public MethodHandle getInvoker (CallContext context) {
+        return this.invoker;
+    }
+
+    /**
+       @return The underlying call site, e.g. for use as the target of an
+               invokedynamic instruction
+     */
+    public CallSite getCallSite (CallContext context) {
+        return this.call_site;
+    }
+
+    public ConfigurationKey getKey (CallContext context) {
+        return this.key;
+    }
+
+    /**
+       Stops tracking changes of the entry, the value is frozen afterwards.
+     */
+    public void release (CallContext context) {
+        this.subscription.cancel(context);
+    }
+
+    protected Object resolve (CallContext context) {
+        long stamp;
+        synchronized (this) {
+            stamp = this.invalidations;
+        }
+        Object value = fetch(RootContext.getFallbackCallContext());
+        synchronized (this) {
+            if (stamp == this.invalidations) {
+                this.call_site.setTarget(MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0, CallContext.class));
+            }
+        }
+        return value;
+    }
+
+    protected Object fetch (CallContext context) {
+        if (this.type == Boolean.class) {
+            return this.key.get(context, ((Boolean) this.default_value).booleanValue());
+        }
+        if (this.type == Integer.class) {
+            return this.key.get(context, ((Integer) this.default_value).intValue());
+        }
+        if (this.type == Long.class) {
+            return this.key.get(context, ((Long) this.default_value).longValue());
+        }
+        return this.key.get(context, (String) this.default_value);
+    }
+
+    public void notifyConfigurationChanged (CallContext context, Set<String> changed_keys) {
+        synchronized (this) {
+            this.invalidations++;
+            this.call_site.setTarget(this.resolver);
+        }
+        MutableCallSite.syncAll(new MutableCallSite[] { this.call_site });
+    }
+
+    public String toString() {
+        return this.key.toString();
+    }
+}
@@ -84,7 +84,7 @@ public class ConfigurationContext extends SpecificContext {
                   : (
                       (property = properties.getProperty(full_key)) == null ?
                           null
-                        : (  Configuration.javascript_evaluator != null && property.length() > 2 && property.charAt(0) == '\u0000' ?
+                        : (  Configuration.isDynamic(property) ?
                                 Configuration.evaluateAndCacheProperty(context, properties, full_key, property)
                               : property
                           )
@@ -0,0 +1,50 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.lang.annotation.*;
+
+/**
+   Marks a field to be assigned from a configuration entry by {@link
+   Configuration#bind}. Supported field types are String, boolean, int and
+   long, and their wrapper classes.
+
+   Example:
+
+   <pre>
+   &#64;ConfigurationEntry(key="NotFoundNoticeEvery")
+   static public volatile int not_found_notice_every = 1000;
+   </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ConfigurationEntry {
+
+    /**
+       Last part of the entry.
+     */
+    String key();
+
+    /**
+       First part of the entry, by default the name of the class declaring
+       the field.
+     */
+    String prefix() default "";
+
+    /**
+       The value used if there is no entry, converted like a property value.
+       By default, the value of the field at the time it is bound first.
+     */
+    String defaultValue() default "\u0000";
+}
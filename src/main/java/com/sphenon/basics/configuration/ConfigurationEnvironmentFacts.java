@@ -0,0 +1,38 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+/**
+   Provides facts about the runtime environment which are needed to
+   determine the configuration variants, see RootConfiguration.getVariants
+   and {@link EnvironmentFacts}. The default implementation is {@link
+   ConfigurationEnvironmentFacts_LocalHost}.
+
+   An alternative implementation can be configured via system property
+   com.sphenon.basics.configuration.EnvironmentFacts, naming a class with
+   a public default constructor.
+
+   Note: methods have no context, since they're really called
+   "very-first".
+ */
+public interface ConfigurationEnvironmentFacts {
+
+    /**
+       Determines the name of the local host. May block, it is invoked in
+       a background thread.
+
+       @return The host name, or null if it can not be determined
+     */
+    public String getHostName ();
+}
@@ -0,0 +1,33 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+
+import java.net.*;
+
+/**
+   The default {@link ConfigurationEnvironmentFacts} provider, based on
+   InetAddress.getLocalHost, see {@link EnvironmentFacts}.
+ */
+public class ConfigurationEnvironmentFacts_LocalHost implements ConfigurationEnvironmentFacts {
+
+    public String getHostName () {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException uhe) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.util.*;
+
+/**
+   A simple interpolation expression, as used in dynamic entries of the
+   form "\u0000Expr:...", see {@link Configuration#evaluateAndCacheProperty}.
+
+   The expression is literal text with embedded references to other
+   entries:
+
+   <pre>
+   ${key}           the value of the entry with the fully qualified key,
+                    or an empty string if there is none
+   ${key:default}   the value of the entry, or the given default
+   $$               a single dollar sign
+   </pre>
+
+   Example:
+
+   <pre>
+   ...CacheFile=\u0000Expr/Cache:${com.sphenon.basics.locating.WEBAPPROOT:}/WEB-INF/...
+   </pre>
+
+   Expressions are parsed once into a list of literal and reference
+   nodes. Evaluation appends the nodes to a single buffer, and an
+   expression consisting of a single reference does not allocate at all.
+   Entries are retrieved like via Configuration.get, without searching in
+   parent entries, and may themselves be dynamic.
+ */
+public class ConfigurationExpression {
+
+    static protected abstract class Node {
+        abstract public String evaluate (CallContext context);
+    }
+
+    static protected class Literal extends Node {
+        protected final String text;
+        public Literal (String text) { this.text = text; }
+        public String evaluate (CallContext context) { return this.text; }
+    }
+
+    static protected class Reference extends Node {
+        protected final String key;
+        protected final String default_value;
+        public Reference (String key, String default_value) { this.key = key; this.default_value = default_value; }
+        public String evaluate (CallContext context) { return Configuration.get(context, null, this.key, this.default_value); }
+    }
+
+    protected final String source;
+    protected final Node[] nodes;
+    protected final int    literal_length;
+    protected final String error;
+
+    /**
+       Parses an expression; parse errors are reported on evaluation, see
+       {@link getError}.
+
+       @param source The expression text
+     */
+    public ConfigurationExpression (String source) {
+        List<Node> nodes = new ArrayList<Node>();
+        StringBuilder literal = new StringBuilder();
+        String error = null;
+        int literal_length = 0;
+        int length = source.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = source.charAt(pos);
+            if (c == '$' && pos + 1 < length && source.charAt(pos + 1) == '$') {
+                literal.append('$');
+                pos += 2;
+            } else if (c == '$' && pos + 1 < length && source.charAt(pos + 1) == '{') {
+                int end = source.indexOf('}', pos + 2);
+                if (end == -1) {
+                    error = "unterminated reference at position " + pos;
+                    break;
+                }
+                if (literal.length() != 0) {
+                    nodes.add(new Literal(literal.toString()));
+                    literal_length += literal.length();
+                    literal.setLength(0);
+                }
+                String reference = source.substring(pos + 2, end);
+                int colon = reference.indexOf(':');
+                String key = (colon == -1 ? reference : reference.substring(0, colon)).trim();
+                if (key.length() == 0) {
+                    error = "empty reference at position " + pos;
+                    break;
+                }
+                nodes.add(new Reference(key, colon == -1 ? "" : reference.substring(colon + 1)));
+                pos = end + 1;
+            } else {
+                literal.append(c);
+                pos++;
+            }
+        }
+        if (literal.length() != 0) {
+            nodes.add(new Literal(literal.toString()));
+            literal_length += literal.length();
+        }
+        this.source         = source;
+        this.nodes          = nodes.toArray(new Node[nodes.size()]);
+        this.literal_length = literal_length;
+        this.error          = error;
+    }
+
+    /**
+       @return null if the expression is valid, otherwise a description of
+               the problem
+     */
+    public String getError () {
+        return this.error;
+    }
+
+    public String getSource () {
+        return this.source;
+    }
+
+    /**
+       @return The keys of all entries referred to
+     */
+    public List<String> getReferences () {
+        List<String> result = new ArrayList<String>();
+        for (Node node : this.nodes) {
+            if (node instanceof Reference) {
+                result.add(((Reference) node).key);
+            }
+        }
+        return result;
+    }
+
+    public String evaluate (CallContext context) {
+        switch (this.nodes.length) {
+            case 0  : return "";
+            case 1  : return this.nodes[0].evaluate(context);
+            default : StringBuilder sb = new StringBuilder(this.literal_length + 32);
+                      for (Node node : this.nodes) {
+                          sb.append(node.evaluate(context));
+                      }
+                      return sb.toString();
+        }
+    }
+
+    public String toString () {
+        return this.source;
+    }
+}
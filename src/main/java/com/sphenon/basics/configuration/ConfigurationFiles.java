@@ -0,0 +1,94 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+
+/**
+   File related helpers shared by the various stores and images persisted
+   by the configuration, i.e. computing stamps to detect modifications of
+   files and resources, and replacing store files atomically.
+ */
+public class ConfigurationFiles {
+
+    /**
+       Computes the stamp of a resource, given it's URL. Resources within
+       jars are stamped by the jar file.
+
+       @return The stamp, or null if the URL is null or can not be stamped
+     */
+    static public String stamp (URL url) {
+        if (url == null) { return null; }
+        String location = url.toString();
+        try {
+            // via URI, which decodes escapes like "%20"
+            if (location.startsWith("file:")) {
+                return stamp(new File(url.toURI()), location);
+            }
+            if (location.startsWith("jar:file:")) {
+                int separator = location.indexOf("!/");
+                if (separator == -1) { return null; }
+                return stamp(new File(new URI(location.substring(4, separator))), location);
+            }
+        } catch (URISyntaxException use) {
+            return null;
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+       Computes the stamp of a file, consisting of the given location, the
+       modification time and the size of the file.
+
+       @return The stamp, or null if the file does not exist
+     */
+    static public String stamp (File file, String location) {
+        long last_modified = file.lastModified();
+        if (last_modified == 0L) { return null; }
+        return location + "|" + last_modified + "|" + file.length();
+    }
+
+    /**
+       Moves a completely written temporary file to it's target, replacing
+       an existing target, so that concurrent readers see either the old or
+       the new file. If the file system does not support atomic moves, the
+       target is replaced non atomically. On failure, the temporary file is
+       deleted.
+
+       @param temporary The written file
+       @param target    The file to replace
+       @throws IOException If the file could not be moved
+     */
+    static public void replaceAtomically (File temporary, File target) throws IOException {
+        try {
+            try {
+                Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            temporary.delete();
+            throw ioe;
+        } catch (InvalidPathException ipe) {
+            temporary.delete();
+            throw new IOException("cannot move '" + temporary.getPath() + "' to '" + target.getPath() + "': " + ipe.getMessage());
+        }
+    }
+}
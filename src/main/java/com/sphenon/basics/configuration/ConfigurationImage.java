@@ -0,0 +1,247 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+
+/**
+   A precompiled binary image of the property sources read during startup,
+   i.e. of the entries of each class resource and folder file, together
+   with a stamp of the source (it's location, modification time and size,
+   respectively those of the jar containing it).
+
+   The image file is memory mapped. When a source is about to be read, see
+   {@link PropertySource#load}, and the image contains it with a matching
+   stamp, it's entries are decoded from the image instead of parsing the
+   text file. Entries are merged as usual, so precedence, variants and
+   origins are unaffected; variant detection itself still runs, since it
+   depends on the host environment.
+
+   Enabled via system property com.sphenon.basics.configuration.Image,
+   which names the file (a system property, since the image is needed
+   before any configuration is read). If sources were parsed because they
+   were missing or stale, the image is rewritten at the end of
+   RootConfiguration.initialise, unless system property
+   com.sphenon.basics.configuration.ImageReadOnly is true. Image file
+   layout:
+
+   <pre>
+   int magic, int count
+   count * (string id, string stamp, int offset)
+   at each offset: int size, size * (string key, string value)
+   </pre>
+
+   where strings are stored as int length plus UTF-8 bytes.
+ */
+public class ConfigurationImage {
+
+    static protected final int     MAGIC = 0x53434931;  // "SCI1"
+    static protected final Charset UTF8  = Charset.forName("UTF-8");
+
+    static protected class Slot {
+        public Slot(String stamp, int offset) { this.stamp = stamp; this.offset = offset; }
+        public final String stamp;
+        public final int    offset;
+    }
+
+    static protected String                path       = System.getProperty("com.sphenon.basics.configuration.Image");
+    static protected boolean               read_only  = "true".equals(System.getProperty("com.sphenon.basics.configuration.ImageReadOnly"));
+    static protected boolean               opened;
+    static protected ByteBuffer            image;
+    static protected Map<String,Slot>      slots;
+    static protected Map<String,Object[]>  recorded;   // id -> { stamp, entries }
+    static protected int                   misses;
+
+    static public boolean isEnabled () {
+        return path != null;
+    }
+
+    static protected synchronized Map<String,Slot> open () {
+        if (opened == false) {
+            opened   = true;
+            slots    = new HashMap<String,Slot>();
+            recorded = new LinkedHashMap<String,Object[]>();
+            File file = new File(path);
+            if (file.exists()) {
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    try {
+                        image = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    } finally {
+                        raf.close();
+                    }
+                    ByteBuffer buffer = image.duplicate();
+                    if (buffer.getInt() == MAGIC) {
+                        int count = buffer.getInt();
+                        for (int s=0; s<count; s++) {
+                            String id    = getString(buffer);
+                            String stamp = getString(buffer);
+                            slots.put(id, new Slot(stamp, buffer.getInt()));
+                        }
+                    }
+                } catch (IOException ioe) {
+                    slots.clear();
+                } catch (BufferUnderflowException bue) {
+                    slots.clear();
+                }
+            }
+        }
+        return slots;
+    }
+
+    static protected String getString (ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) { throw new BufferUnderflowException(); }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+       @return The entries of the source as contained in the image, or null
+               if the image does not contain the source or is outdated;
+               if the image turns out to be damaged (e.g. truncated or
+               written by someone else), it is not used any further and
+               rewritten, and null is returned, too
+     */
+    static public Properties lookup (CallContext context, PropertySource source) {
+        Map<String,Slot> slots = open();
+        Slot slot = slots.get(source.getId(context));
+        if (slot == null) { return null; }
+        String stamp = source.getStamp(context);
+        if (stamp == null || stamp.equals(slot.stamp) == false) { return null; }
+        Properties entries = new Properties();
+        try {
+            ByteBuffer buffer = image.duplicate();
+            buffer.position(slot.offset);
+            int size = buffer.getInt();
+            for (int e=0; e<size; e++) {
+                String key = getString(buffer);
+                entries.put(key, getString(buffer));
+            }
+        } catch (IllegalArgumentException iae) {
+            return discard(context, iae);
+        } catch (BufferUnderflowException bue) {
+            return discard(context, bue);
+        } catch (IndexOutOfBoundsException ioobe) {
+            return discard(context, ioobe);
+        }
+        synchronized (ConfigurationImage.class) {
+            recorded.put(source.getId(context), new Object[] { stamp, entries });
+        }
+        return entries;
+    }
+
+    /**
+       Marks the image as stale after it turned out to be damaged, so that
+       all sources are parsed and the image is rewritten.
+
+       @return null, for convenience
+     */
+    static protected synchronized Properties discard (CallContext context, RuntimeException damage) {
+        if (slots.isEmpty() == false) {
+            BootstrapNotifier.sendCheckpoint(context, "Configuration image '" + path + "' is damaged, ignored (" + damage + ")");
+        }
+        slots = Collections.<String,Slot>emptyMap();
+        misses++;
+        return null;
+    }
+
+    /**
+       Records the entries of a source which was parsed, to be included in
+       the next image written.
+     */
+    static public void record (CallContext context, PropertySource source, Properties entries) {
+        String stamp = source.getStamp(context);
+        if (stamp == null) { return; }
+        open();
+        synchronized (ConfigurationImage.class) {
+            recorded.put(source.getId(context), new Object[] { stamp, entries });
+            misses++;
+        }
+    }
+
+    /**
+       Writes the image, if sources have been parsed since it was opened.
+     */
+    static public synchronized void writeIfStale (CallContext context) {
+        if (path == null || opened == false || misses == 0 || read_only) { return; }
+        try {
+            write(context);
+            BootstrapNotifier.sendCheckpoint(context, "Wrote configuration image '" + path + "' (" + recorded.size() + " sources)");
+            misses = 0;
+        } catch (IOException ioe) {
+            Configuration.messenger.message(context, MessageText.create(context, "Could not write configuration image '%(file)': %(reason)", "file", path, "reason", ioe.toString()));
+        }
+    }
+
+    static protected void write (CallContext context) throws IOException {
+        ByteArrayOutputStream index_bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream data_bytes  = new ByteArrayOutputStream();
+        DataOutputStream      index       = new DataOutputStream(index_bytes);
+        DataOutputStream      data        = new DataOutputStream(data_bytes);
+
+        List<int[]> fixups = new ArrayList<int[]>();
+        for (Map.Entry<String,Object[]> source : recorded.entrySet()) {
+            putString(index, source.getKey());
+            putString(index, (String) source.getValue()[0]);
+            fixups.add(new int[] { index.size(), data.size() });
+            index.writeInt(0);
+            Properties entries = (Properties) source.getValue()[1];
+            Set<String> keys = entries.stringPropertyNames();
+            data.writeInt(keys.size());
+            for (String key : keys) {
+                putString(data, key);
+                putString(data, entries.getProperty(key));
+            }
+        }
+        index.flush();
+        data.flush();
+
+        int header = 8;
+        byte[] index_array = index_bytes.toByteArray();
+        ByteBuffer patch = ByteBuffer.wrap(index_array);
+        for (int[] fixup : fixups) {
+            patch.putInt(fixup[0], header + index_array.length + fixup[1]);
+        }
+
+        File file      = new File(path);
+        File temporary = new File(path + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(recorded.size());
+            out.write(index_array);
+            data_bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        ConfigurationFiles.replaceAtomically(temporary, file);
+    }
+
+    static protected void putString (DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,38 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+/**
+   Optionally implemented by a ConfigurationJavaScriptEvaluator which is
+   able to compile expressions once and evaluate the compiled form
+   repeatedly. Dynamic property entries are compiled on first evaluation,
+   see {@link DynamicProperty}. Bodies of entries evaluated by evaluators
+   not implementing this interface are passed as text each time.
+ */
+public interface ConfigurationJavaScriptCompiler {
+
+    /**
+       @param expression The JavaScript expression to be compiled
+       @return An evaluator specific compiled form of the expression
+     */
+    public Object compile (CallContext context, String expression);
+
+    /**
+       @param compiled The result of a previous compile call
+       @return The result of the evaluation
+     */
+    public String evaluate (CallContext context, Object compiled);
+}
@@ -0,0 +1,146 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+/**
+   A precompiled handle to a single property entry, see {@link
+   Configuration#key}.
+
+   The handle holds the interned fully qualified key, it's precomputed
+   hash code and the value resolved last, stamped with the version of the
+   root configuration snapshot it was resolved from. As long as the root
+   configuration is not modified, a lookup is a version comparison plus a
+   field read.
+
+   Typed accessors additionally reuse the parsed values cached in the
+   snapshot, see {@link TypedPropertyValue}.
+
+   Lookups within a ConfigurationContext, in trace mode, or of dynamic
+   (JavaScript) entries are delegated to the regular accessors and are not
+   cached.
+ */
+public class ConfigurationKey {
+
+    static protected class Resolved {
+        public Resolved(long version, TypedPropertyValue typed) { this.version = version; this.typed = typed; }
+        public final long               version;
+        public final TypedPropertyValue typed;      // MISSING if there is no such entry
+    }
+
+    protected String prefix;
+    protected String key;
+    protected String full_key;
+    protected int    hash;
+
+    protected volatile Resolved resolved;
+
+    protected ConfigurationKey (CallContext context, String prefix, String key) {
+        this.prefix   = prefix;
+        this.key      = key;
+        this.full_key = (key == null ? prefix : (prefix == null ? key : (new StringBuffer(prefix).append('.').append(key)).toString())).intern();
+        this.hash     = PropertySnapshot.hash(this.full_key);
+    }
+
+    public String getFullKey (CallContext context) {
+        return this.full_key;
+    }
+
+    /**
+       Resolves the entry from the current root snapshot.
+
+       @return The resolved entry, or null if it has to be retrieved via the
+               regular accessors
+     */
+    protected Resolved resolve (CallContext context) {
+        if (Configuration.trace_mode || ConfigurationContext.get((Context) context) != null) {
+            return null;
+        }
+
+        PropertySnapshot current = RootConfiguration.getSnapshot(context);
+        if (current == null) { return null; }
+
+        Resolved last = this.resolved;
+        if (last != null && last.version == current.getVersion()) {
+            return last;
+        }
+
+        TypedPropertyValue typed = current.getTypedValue(this.full_key, this.hash);
+        if (typed == null) {
+            if ((RootConfiguration.include_system_properties && current.isKnownMissing(this.full_key) == false) || RootConfiguration.hasLayers()) {
+                return null;
+            }
+            typed = TypedPropertyValue.MISSING;
+        } else {
+            String value = typed.getValue();
+            if (value.length() > 2 && value.charAt(0) == '\u0000') {
+                return null;
+            }
+        }
+
+        return (this.resolved = new Resolved(current.getVersion(), typed));
+    }
+
+    /**
+       Retrieves the value of the entry.
+
+       @return The value of the entry or null if none is found. Note: that
+               value may be the result of an optional JavaScript evaluation
+     */
+    public String getValue (CallContext context) {
+        Resolved resolved = resolve(context);
+        if (resolved == null) {
+            return Configuration.getProperty(context, this.prefix, this.key, false);
+        }
+        return resolved.typed.getValue();
+    }
+
+    public String get (CallContext context, String default_value) {
+        String value = getValue(context);
+        return (value == null ? default_value : value);
+    }
+
+    public boolean get (CallContext context, boolean default_value) {
+        Resolved resolved = resolve(context);
+        if (resolved == null) {
+            String value = Configuration.getProperty(context, this.prefix, this.key, false);
+            return (value == null ? default_value : Configuration.convertToBoolean(context, this.prefix, this.key, value, default_value));
+        }
+        return (resolved.typed == TypedPropertyValue.MISSING ? default_value : resolved.typed.getBoolean(context, this.prefix, this.key, default_value));
+    }
+
+    public int get (CallContext context, int default_value) {
+        Resolved resolved = resolve(context);
+        if (resolved == null) {
+            String value = Configuration.getProperty(context, this.prefix, this.key, false);
+            return (value == null ? default_value : Configuration.convertToInt(context, this.prefix, this.key, value, default_value));
+        }
+        return (resolved.typed == TypedPropertyValue.MISSING ? default_value : resolved.typed.getInt(context, this.prefix, this.key, default_value));
+    }
+
+    public long get (CallContext context, long default_value) {
+        Resolved resolved = resolve(context);
+        if (resolved == null) {
+            String value = Configuration.getProperty(context, this.prefix, this.key, false);
+            return (value == null ? default_value : Configuration.convertToLong(context, this.prefix, this.key, value, default_value));
+        }
+        return (resolved.typed == TypedPropertyValue.MISSING ? default_value : resolved.typed.getLong(context, this.prefix, this.key, default_value));
+    }
+
+    public String toString() {
+        return this.full_key;
+    }
+}
@@ -0,0 +1,35 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.util.Set;
+
+/**
+   Receives notifications about changed configuration entries, see
+   {@link Configuration#watch}.
+ */
+public interface ConfigurationListener {
+
+    /**
+       Invoked on the notification executor after one or more entries
+       below the watched prefix changed their effective value. Changes
+       which occur while a previous notification is still pending or being
+       delivered are collected and delivered together afterwards.
+
+       @param changed_keys The fully qualified keys of the changed entries
+     */
+    public void notifyConfigurationChanged (CallContext context, Set<String> changed_keys);
+}
@@ -0,0 +1,161 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   Registry of configuration listeners, see {@link Configuration#watch}.
+
+   Subscriptions are indexed by their key prefix. For each changed key
+   only the key itself and it's dotted parents are looked up, so the cost
+   of a modification does not depend on the number of listeners watching
+   unrelated prefixes, and is a single volatile read if there are no
+   listeners at all.
+
+   RootConfiguration reports each published snapshot together with the
+   keys which may have changed; only keys whose effective value differs
+   between the previous and the new snapshot are delivered.
+ */
+public class ConfigurationNotifier {
+
+    static protected ConcurrentHashMap<String,List<ConfigurationSubscription>> subscriptions = new ConcurrentHashMap<String,List<ConfigurationSubscription>>();
+
+    static protected volatile int count;
+
+    static protected volatile Executor executor;
+
+    /**
+       Registers a listener.
+
+       @param prefix_or_key A fully qualified key or a prefix of such keys
+                            (without trailing dot); null or "" watches all
+                            entries
+       @return The subscription, to be cancelled if no longer needed
+     */
+    static public ConfigurationSubscription subscribe (CallContext context, String prefix_or_key, ConfigurationListener listener) {
+        return subscribe(context, prefix_or_key, listener, false);
+    }
+
+    /**
+       Like above, optionally synchronous, see ConfigurationSubscription.
+     */
+    static protected ConfigurationSubscription subscribe (CallContext context, String prefix_or_key, ConfigurationListener listener, boolean synchronous) {
+        String prefix = (prefix_or_key == null ? "" : prefix_or_key);
+        ConfigurationSubscription subscription = new ConfigurationSubscription(context, prefix, listener, synchronous);
+        synchronized (ConfigurationNotifier.class) {
+            List<ConfigurationSubscription> list = subscriptions.get(prefix);
+            if (list == null) {
+                subscriptions.put(prefix, list = new CopyOnWriteArrayList<ConfigurationSubscription>());
+            }
+            list.add(subscription);
+            count++;
+        }
+        return subscription;
+    }
+
+    static protected void unsubscribe (CallContext context, ConfigurationSubscription subscription) {
+        synchronized (ConfigurationNotifier.class) {
+            List<ConfigurationSubscription> list = subscriptions.get(subscription.getPrefix(context));
+            if (list != null && list.remove(subscription)) {
+                if (list.isEmpty()) {
+                    subscriptions.remove(subscription.getPrefix(context));
+                }
+                count--;
+            }
+        }
+    }
+
+    /**
+       Sets the executor used to deliver notifications. By default, a
+       single daemon thread is used.
+     */
+    static public void setExecutor (CallContext context, Executor new_executor) {
+        executor = new_executor;
+    }
+
+    static protected Executor getExecutor (CallContext context) {
+        Executor result = executor;
+        if (result == null) {
+            synchronized (ConfigurationNotifier.class) {
+                if ((result = executor) == null) {
+                    executor = result = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ConfigurationNotifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return result;
+    }
+
+    static public boolean isActive () {
+        return count != 0;
+    }
+
+    /**
+       Delivers the changes between two snapshots to the affected listeners.
+
+       @param previous     The snapshot replaced
+       @param current      The snapshot published
+       @param changed_keys The keys which may have changed, or null if
+                           unknown, in which case all keys of both
+                           snapshots are compared
+     */
+    static protected void notify (CallContext context, PropertySnapshot previous, PropertySnapshot current, Collection<String> changed_keys) {
+        if (count == 0) { return; }
+
+        Collection<String> candidates = changed_keys;
+        if (candidates == null) {
+            Set<String> all = new HashSet<String>();
+            previous.addKeys(all);
+            current.addKeys(all);
+            candidates = all;
+        }
+
+        Set<ConfigurationSubscription> affected = null;
+        for (String key : candidates) {
+            String before = previous.get(key);
+            String after  = current.get(key);
+            if (before == null ? after == null : before.equals(after)) { continue; }
+
+            String prefix = key;
+            while (true) {
+                List<ConfigurationSubscription> list = subscriptions.get(prefix);
+                if (list != null) {
+                    for (ConfigurationSubscription subscription : list) {
+                        subscription.add(key);
+                        if (affected == null) { affected = new HashSet<ConfigurationSubscription>(); }
+                        affected.add(subscription);
+                    }
+                }
+                if (prefix.length() == 0) { break; }
+                int pos = prefix.lastIndexOf('.');
+                prefix = (pos == -1 ? "" : prefix.substring(0, pos));
+            }
+        }
+
+        if (affected != null) {
+            for (ConfigurationSubscription subscription : affected) {
+                subscription.schedule(context);
+            }
+        }
+    }
+}
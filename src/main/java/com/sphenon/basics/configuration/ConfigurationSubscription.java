@@ -0,0 +1,118 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.message.*;
+
+import java.util.*;
+
+/**
+   A registration of a ConfigurationListener for a key or key prefix, as
+   returned by {@link Configuration#watch}.
+
+   Changed keys are collected in a pending set. As long as a delivery is
+   scheduled or running, further changes are only added to that set, so
+   rapid successive changes are coalesced and a listener is never invoked
+   concurrently with itself.
+
+   Synchronous subscriptions are instead notified immediately within the
+   thread publishing the change, while the root configuration is locked;
+   they are reserved for cheap internal invalidations, see
+   ConfigurationConstant.
+ */
+public class ConfigurationSubscription implements Runnable {
+
+    protected String                prefix;
+    protected ConfigurationListener listener;
+    protected Set<String>           pending;
+    protected boolean               scheduled;
+    protected volatile boolean      cancelled;
+    protected boolean               synchronous;
+
+    protected ConfigurationSubscription (CallContext context, String prefix, ConfigurationListener listener, boolean synchronous) {
+        this.prefix      = prefix;
+        this.listener    = listener;
+        this.synchronous = synchronous;
+        this.pending   = new HashSet<String>();
+        this.scheduled = false;
+        this.cancelled = false;
+    }
+
+    public String getPrefix (CallContext context) {
+        return this.prefix;
+    }
+
+    public ConfigurationListener getListener (CallContext context) {
+        return this.listener;
+    }
+
+    /**
+       Removes this subscription; pending notifications are dropped.
+     */
+    public void cancel (CallContext context) {
+        this.cancelled = true;
+        ConfigurationNotifier.unsubscribe(context, this);
+    }
+
+    protected synchronized void add (String key) {
+        this.pending.add(key);
+    }
+
+    /**
+       Submits a delivery of the pending keys, unless one is already
+       scheduled or running.
+     */
+    protected void schedule (CallContext context) {
+        if (this.synchronous) {
+            Set<String> batch;
+            synchronized (this) {
+                batch = this.pending;
+                this.pending = new HashSet<String>();
+            }
+            if (this.cancelled == false && batch.isEmpty() == false) {
+                this.listener.notifyConfigurationChanged(context, Collections.unmodifiableSet(batch));
+            }
+            return;
+        }
+        synchronized (this) {
+            if (this.scheduled || this.pending.isEmpty()) { return; }
+            this.scheduled = true;
+        }
+        ConfigurationNotifier.getExecutor(context).execute(this);
+    }
+
+    public void run () {
+        CallContext context = RootContext.getFallbackCallContext();
+        Set<String> batch;
+        synchronized (this) {
+            batch = this.pending;
+            this.pending = new HashSet<String>();
+        }
+        if (this.cancelled == false && batch.isEmpty() == false) {
+            try {
+                this.listener.notifyConfigurationChanged(context, Collections.unmodifiableSet(batch));
+            } catch (Throwable t) {
+                Configuration.messenger.message(context, MessageText.create(context, "Configuration listener for '%(prefix)' failed: %(reason)", "prefix", this.prefix, "reason", t.toString()));
+            }
+        }
+        synchronized (this) {
+            this.scheduled = false;
+        }
+        if (this.cancelled == false) {
+            schedule(context);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.exception.*;
+import com.sphenon.basics.monitoring.ProblemState;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+   Watches the configuration folders in a background thread and triggers a
+   reload of the root configuration if files within these folders change,
+   see RootConfiguration.reload.
+
+   Uses a java.nio.file.WatchService, if available. Otherwise, or if
+   requested explicitly, the folders are polled. Folders which do not yet
+   exist are checked at each poll interval in both modes.
+
+   Changes are collected for a short settle time before a reload is
+   triggered, so that editors writing several files or writing a file in
+   several steps cause only one reload.
+
+   Only the sphenon specific configuration folders are watched, not the
+   home and working directories, where just single ".sphenon-*" files
+   are read; modifications of the latter become effective with the next
+   reload triggered by a watched folder. Variant files are not reloaded at
+   all, see RootConfiguration.reload.
+
+   Enabled via property com.sphenon.basics.configuration.ReloadOnChange,
+   see RootConfiguration.initialise.
+ */
+public class ConfigurationWatcher implements Runnable {
+
+    static protected ConfigurationWatcher singleton;
+
+    /**
+       Starts the watcher thread, if not already running.
+
+       @param folders       The folders to watch
+       @param poll_interval Milliseconds between polls, also used to check
+                            for folders which did not exist before
+       @param use_polling   If true, do not use a WatchService
+     */
+    static public synchronized void start(CallContext context, List<String> folders, long poll_interval, boolean use_polling) {
+        if (singleton != null) { return; }
+        singleton = new ConfigurationWatcher(context, folders, poll_interval, use_polling);
+        Thread thread = new Thread(singleton, "ConfigurationWatcher");
+        thread.setDaemon(true);
+        thread.start();
+        BootstrapNotifier.sendCheckpoint(context, "Watching configuration folders for changes (" + (singleton.watch_service == null ? "polling" : "watch service") + ")");
+    }
+
+    /**
+       Stops the watcher thread, if running.
+     */
+    static public synchronized void stop(CallContext context) {
+        if (singleton != null) {
+            singleton.running = false;
+            singleton = null;
+        }
+    }
+
+    static protected final long SETTLE_TIME = 200;
+
+    protected List<String>         folders;
+    protected long                 poll_interval;
+    protected WatchService         watch_service;
+    protected Map<WatchKey,String> watched;
+    protected Map<String,Long>     signatures;
+    protected volatile boolean     running;
+
+    protected ConfigurationWatcher (CallContext context, List<String> folders, long poll_interval, boolean use_polling) {
+        this.folders       = new ArrayList<String>(folders);
+        this.poll_interval = poll_interval;
+        this.watched       = new HashMap<WatchKey,String>();
+        this.signatures    = new HashMap<String,Long>();
+        this.running       = true;
+
+        if (use_polling == false) {
+            try {
+                this.watch_service = FileSystems.getDefault().newWatchService();
+            } catch (IOException ioe) {
+                this.watch_service = null;
+            } catch (UnsupportedOperationException uoe) {
+                this.watch_service = null;
+            }
+        }
+
+        for (String folder : this.folders) {
+            this.signatures.put(folder, signature(folder));
+            if (this.watch_service != null) {
+                register(folder);
+            }
+        }
+    }
+
+    protected boolean register(String folder) {
+        if (this.watched.containsValue(folder)) { return true; }
+        File file = new File(folder);
+        if (file.isDirectory() == false) { return false; }
+        try {
+            WatchKey key = file.toPath().register(this.watch_service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            this.watched.put(key, folder);
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+       Computes a cheap signature of the files within a folder (names, sizes
+       and modification times), used in polling mode and to detect newly
+       created folders.
+     */
+    static protected long signature(String folder) {
+        File[] files = new File(folder).listFiles();
+        if (files == null) { return -1L; }
+        Arrays.sort(files);
+        long signature = files.length;
+        for (File file : files) {
+            signature = 31 * signature + file.getName().hashCode();
+            signature = 31 * signature + file.lastModified();
+            signature = 31 * signature + file.length();
+        }
+        return signature;
+    }
+
+    /**
+       Checks all folders which are not covered by the watch service for
+       modifications by comparing their signatures.
+
+       @param changed Receives the folders found to be modified
+     */
+    protected void poll(Set<String> changed) {
+        for (String folder : this.folders) {
+            if (this.watch_service != null && this.watched.containsValue(folder)) { continue; }
+            long signature = signature(folder);
+            Long previous = this.signatures.put(folder, signature);
+            if (previous == null || previous.longValue() != signature) {
+                changed.add(folder);
+            }
+            if (this.watch_service != null && signature != -1L) {
+                register(folder);
+            }
+        }
+    }
+
+    protected void drain(WatchKey key, Set<String> changed) {
+        String folder = this.watched.get(key);
+        if (folder != null) {
+            key.pollEvents();
+            changed.add(folder);
+        }
+        if (key.reset() == false) {
+            this.watched.remove(key);
+        }
+    }
+
+    public void run() {
+        CallContext context = RootContext.getFallbackCallContext();
+        while (this.running) {
+            Set<String> changed = new HashSet<String>();
+            try {
+                if (this.watch_service != null) {
+                    WatchKey key = this.watch_service.poll(this.poll_interval, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        drain(key, changed);
+                        Thread.sleep(SETTLE_TIME);
+                        while ((key = this.watch_service.poll()) != null) {
+                            drain(key, changed);
+                        }
+                    }
+                } else {
+                    Thread.sleep(this.poll_interval);
+                }
+                poll(changed);
+            } catch (InterruptedException ie) {
+                return;
+            } catch (ClosedWatchServiceException cwse) {
+                return;
+            }
+
+            if (changed.isEmpty() == false && this.running) {
+                try {
+                    RootConfiguration.reload(context);
+                } catch (Throwable t) {
+                    // the previous configuration stays in effect, next change tries again
+                    Configuration.messenger.message(context, MessageText.create(context, "Reloading configuration after changes in '%(folders)' failed: %(reason)", "folders", changed.toString(), "reason", t.toString()));
+                }
+            }
+        }
+        if (this.watch_service != null) {
+            try { this.watch_service.close(); } catch (IOException ioe) { }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.exception.*;
+import com.sphenon.basics.monitoring.ProblemState;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   The parsed form of a dynamic property entry, i.e. of a value of the form
+   "\u0000directive/directive/...:body", see {@link
+   Configuration#evaluateAndCacheProperty}.
+
+   Entries are parsed on first evaluation and kept in a table keyed by the
+   raw value, so that the header is not split on each access and the body
+   is parsed (see {@link ConfigurationExpression}) at most once. Since the
+   table is keyed by value, a modified entry is parsed anew. The table is
+   limited to the most recently used entries.
+
+   JavaScript bodies are compiled once only if the registered evaluator
+   implements {@link ConfigurationJavaScriptCompiler}; this package does
+   not adapt plain evaluators, whose bodies are passed as text on each
+   evaluation, as before.
+ */
+public class DynamicProperty {
+
+    static protected final int MAXIMUM_ENTRIES = 4096;
+
+    // access ordered, least recently used entries are evicted; guarded by itself
+    static protected final Map<String,DynamicProperty> parsed = new LinkedHashMap<String,DynamicProperty>(256, 0.75f, true) {
+        static private final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry<String,DynamicProperty> eldest) {
+            return this.size() > MAXIMUM_ENTRIES;
+        }
+    };
+
+    /**
+       @param raw A property value starting with '\u0000' and containing a
+                  colon
+       @return The parsed entry
+     */
+    static public DynamicProperty get (CallContext context, String raw) {
+        DynamicProperty result;
+        synchronized (parsed) {
+            result = parsed.get(raw);
+        }
+        if (result == null) {
+            // parsed outside the lock, concurrent parses of the same value are harmless
+            result = new DynamicProperty(raw);
+            synchronized (parsed) {
+                DynamicProperty previous = parsed.get(raw);
+                if (previous != null) {
+                    result = previous;
+                } else {
+                    parsed.put(raw, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected final String  raw;
+    protected final String  header;
+    protected final String  body;
+    protected final String  invalid;
+    protected final boolean js;
+    protected final boolean expr;
+    protected final boolean variants;
+    protected final boolean cache;
+    protected final boolean memo;
+    protected final long    ttl;
+
+    protected final ConfigurationExpression expression;
+
+    protected volatile Object[] compiled;   // { compiler, compiled body }
+
+    protected DynamicProperty (String raw) {
+        int pos = raw.indexOf(':');
+        boolean js       = false;
+        boolean expr     = false;
+        boolean variants = false;
+        boolean cache    = false;
+        boolean memo     = false;
+        long    ttl      = -1L;
+        String  invalid  = null;
+        this.raw    = raw;
+        this.header = raw.substring(1, pos);
+        this.body   = raw.substring(pos + 1);
+        for (String pp : this.header.split("/")) {
+            switch (pp) {
+                case "JavaScript" : js       = true; break;
+                case "Expr"       : expr     = true; break;
+                case "Variants"   : variants = true; break;
+                case "Cache"      : cache    = true; break;
+                case "Memo"       : memo     = true; break;
+                default           : if (pp.startsWith("TTL=")) {
+                                        try {
+                                            ttl = Long.parseLong(pp.substring(4));
+                                            if (ttl >= 0L) { break; }
+                                        } catch (NumberFormatException nfe) {
+                                        }
+                                    }
+                                    if (invalid == null) { invalid = pp; }
+                                    break;
+            }
+        }
+        this.js       = js;
+        this.expr     = expr;
+        this.variants = variants;
+        this.cache    = cache;
+        this.memo     = memo;
+        this.ttl      = ttl;
+        this.invalid  = invalid;
+        this.expression = (expr ? new ConfigurationExpression(this.body) : null);
+    }
+
+    public String getRaw () {
+        return this.raw;
+    }
+
+    public String getHeader () {
+        return this.header;
+    }
+
+    public String getBody () {
+        return this.body;
+    }
+
+    /**
+       @return null if all directives are known, otherwise the first unknown
+               one
+     */
+    public String getInvalidDirective () {
+        return this.invalid;
+    }
+
+    public boolean isJavaScript () {
+        return this.js;
+    }
+
+    public boolean isExpr () {
+        return this.expr;
+    }
+
+    /**
+       @return The parsed body, if this is an "Expr" entry, otherwise null
+     */
+    public ConfigurationExpression getExpression () {
+        return this.expression;
+    }
+
+    public boolean isVariants () {
+        return this.variants;
+    }
+
+    public boolean isCache () {
+        return this.cache;
+    }
+
+    /**
+       @return true if results are kept in the DynamicPropertyResultCache,
+               i.e. if there is a "Memo" or "TTL=<ms>" directive
+     */
+    public boolean isMemoized () {
+        return this.memo || this.ttl >= 0L;
+    }
+
+    /**
+       @return The time to live of results in milliseconds, given via
+               "TTL=<ms>", or -1 if results do not expire
+     */
+    public long getTimeToLive () {
+        return this.ttl;
+    }
+
+    /**
+       Evaluates the body as a JavaScript expression, using the compiled
+       form if the evaluator supports compilation.
+     */
+    public String evaluateJavaScript (CallContext context) {
+        ConfigurationJavaScriptEvaluator evaluator = Configuration.javascript_evaluator;
+        if (evaluator instanceof ConfigurationJavaScriptCompiler) {
+            ConfigurationJavaScriptCompiler compiler = (ConfigurationJavaScriptCompiler) evaluator;
+            Object[] current = this.compiled;
+            if (current == null || current[0] != compiler) {
+                this.compiled = current = new Object[] { compiler, compiler.compile(context, this.body) };
+            }
+            return compiler.evaluate(context, current[1]);
+        }
+        return Configuration.evaluateJavaScript(context, this.body);
+    }
+}
@@ -0,0 +1,240 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+   Tracks which entries the evaluation of a dynamic entry read, and
+   invalidates the results of such evaluations once one of these entries
+   changes.
+
+   While a cacheable (Cache, Memo or TTL) dynamic entry is evaluated, an
+   evaluation frame is active on the evaluating thread, and each lookup in
+   the root configuration, including those done by JavaScript via the
+   "config" parameter and by interpolation expressions, records it's key
+   in that frame. If no evaluation is active on any thread, recording
+   costs a single volatile read.
+
+   The recorded keys form a dependency graph. When RootConfiguration
+   publishes a change, the dependent entries are invalidated transitively:
+   memoized results are dropped, and entries which were replaced by their
+   cached result are reset to their original dynamic value, so that they
+   are evaluated again on next access. Optionally, the latter are
+   recomputed in the background right away.
+ */
+public class DynamicPropertyDependencies {
+
+    static protected class Frame {
+        public Frame(Frame parent) { this.parent = parent; }
+        public final Frame       parent;
+        public final Set<String> reads = new HashSet<String>();
+    }
+
+    static protected ThreadLocal<Frame> current  = new ThreadLocal<Frame>();
+    static protected AtomicInteger      tracking = new AtomicInteger();
+
+    /**
+       @return true if an evaluation is being tracked on any thread
+     */
+    static public boolean isTracking () {
+        return tracking.get() != 0;
+    }
+
+    /**
+       Starts recording the keys read by the current thread.
+
+       @return The frame, to be passed to end
+     */
+    static protected Frame begin () {
+        Frame frame = new Frame(current.get());
+        current.set(frame);
+        tracking.incrementAndGet();
+        return frame;
+    }
+
+    /**
+       Stops recording, the enclosing frame, if any, becomes active again.
+
+       @return The keys read since the frame was begun
+     */
+    static protected Set<String> end (Frame frame) {
+        if (frame.parent == null) {
+            current.remove();
+        } else {
+            current.set(frame.parent);
+        }
+        tracking.decrementAndGet();
+        return frame.reads;
+    }
+
+    /**
+       Records a root configuration lookup, if an evaluation is active on
+       the current thread.
+
+       @param full_key The fully qualified key looked up
+     */
+    static public void record (String full_key) {
+        Frame frame = current.get();
+        if (frame != null) {
+            frame.reads.add(full_key);
+        }
+    }
+
+    /**
+       Records a lookup which searches in parent entries; the result depends
+       on all levels.
+     */
+    static public void recordRecursive (String prefix, String key) {
+        Frame frame = current.get();
+        if (frame != null) {
+            while (true) {
+                frame.reads.add(prefix == null ? key : (prefix + "." + key));
+                if (prefix == null) { break; }
+                int last_dot = prefix.lastIndexOf('.');
+                prefix = (last_dot == -1 ? null : prefix.substring(0, last_dot));
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------
+
+    static protected Map<String,Set<String>> dependents   = new HashMap<String,Set<String>>();   // read key  -> dependent keys
+    static protected Map<String,Set<String>> dependencies = new HashMap<String,Set<String>>();   // dependent -> read keys
+    static protected Map<String,String[]>    originals    = new HashMap<String,String[]>();      // dependent -> { raw, cached value }, if cached in the table
+    static protected volatile boolean        has_dependents;
+    static protected volatile boolean        recompute;
+
+    /**
+       If set, entries which were cached in the table and get invalidated
+       are evaluated again in the background.
+     */
+    static public void setRecompute (boolean new_recompute) {
+        recompute = new_recompute;
+    }
+
+    static public boolean hasDependents () {
+        return has_dependents;
+    }
+
+    /**
+       Records the result of an evaluation.
+
+       @param key    The fully qualified key of the evaluated entry
+       @param reads  The keys read during evaluation
+       @param raw    The dynamic value evaluated
+       @param value  The result, if it is cached in the root table,
+                     otherwise null
+     */
+    static protected synchronized void register (String key, Set<String> reads, String raw, String value) {
+        unregister(key);
+        if (reads.isEmpty()) { return; }
+        for (String read : reads) {
+            Set<String> keys = dependents.get(read);
+            if (keys == null) {
+                dependents.put(read, keys = new HashSet<String>());
+            }
+            keys.add(key);
+        }
+        dependencies.put(key, new HashSet<String>(reads));
+        if (value != null) {
+            originals.put(key, new String[] { raw, value });
+        }
+        has_dependents = true;
+    }
+
+    static protected void unregister (String key) {
+        Set<String> reads = dependencies.remove(key);
+        if (reads != null) {
+            for (String read : reads) {
+                Set<String> keys = dependents.get(read);
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    dependents.remove(read);
+                }
+            }
+        }
+        originals.remove(key);
+        has_dependents = (dependencies.isEmpty() == false);
+    }
+
+    /**
+       Determines which of the keys evaluations depend on differ between a
+       snapshot and the current table, used if the modified keys are not
+       known.
+     */
+    static protected synchronized Set<String> getChangedDependencies (PropertySnapshot previous, Properties properties) {
+        Set<String> result = new HashSet<String>();
+        for (String read : dependents.keySet()) {
+            String before = previous.get(read);
+            String after  = properties.getProperty(read);
+            if (before == null ? after != null : before.equals(after) == false) {
+                result.add(read);
+            }
+        }
+        return result;
+    }
+
+    /**
+       Invalidates all evaluations depending transitively on the given keys.
+       Must be invoked with the root configuration locked, before the
+       modified table is published.
+
+       @param properties   The root user table
+       @param changed_keys The modified keys
+       @return The keys of entries which were reset to their dynamic value
+     */
+    static protected Set<String> invalidate (CallContext context, Properties properties, Collection<String> changed_keys) {
+        Set<String> reset = new HashSet<String>();
+        synchronized (DynamicPropertyDependencies.class) {
+            LinkedList<String> queue = new LinkedList<String>(changed_keys);
+            Set<String> seen = new HashSet<String>(changed_keys);
+            while (queue.isEmpty() == false) {
+                Set<String> keys = dependents.get(queue.removeFirst());
+                if (keys == null) { continue; }
+                for (String dependent : new ArrayList<String>(keys)) {
+                    String[] original = originals.get(dependent);
+                    unregister(dependent);
+                    DynamicPropertyResultCache.remove(dependent);
+                    if (original != null && original[1].equals(properties.getProperty(dependent))) {
+                        properties.setProperty(dependent, original[0]);
+                        reset.add(dependent);
+                    }
+                    if (seen.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        if (recompute && reset.isEmpty() == false) {
+            final List<String> keys = new ArrayList<String>(reset);
+            ConfigurationNotifier.getExecutor(context).execute(new Runnable() {
+                public void run() {
+                    CallContext context = RootContext.getFallbackCallContext();
+                    for (String key : keys) {
+                        try {
+                            RootConfiguration.getPropertyEntry(context, key);
+                        } catch (Throwable t) {
+                            // stays dynamic, evaluated again on access
+                        }
+                    }
+                }
+            });
+        }
+        return reset;
+    }
+}
@@ -0,0 +1,126 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   Evaluates all cacheable dynamic entries (those with a "Cache" directive)
+   of the root configuration in parallel, so that the first request which
+   reads such an entry does not pay for the evaluation, including the
+   warmup of the JavaScript engine.
+
+   Runs once at the end of RootConfiguration.initialise, after the package
+   initialisers and after the class lock of RootConfiguration has been
+   released (the evaluations write back cached entries under that lock),
+   if enabled via property
+   com.sphenon.basics.configuration.PreEvaluate. The number of threads
+   (PreEvaluateThreads) and the overall timeout in milliseconds
+   (PreEvaluateTimeout) are configurable as well. If JavaScript entries
+   are involved, the registered evaluator must be thread safe, or the
+   number of threads has to be 1.
+
+   All results are published in one snapshot. Failures do not abort the
+   startup; the affected entries stay dynamic and are evaluated on access
+   as before, and all failures are reported in one message.
+ */
+public class DynamicPropertyPreEvaluator {
+
+    /**
+       @param threads The maximum number of concurrent evaluations
+       @param timeout Milliseconds to wait for all evaluations
+     */
+    static public void run (CallContext context, int threads, long timeout) {
+        PropertySnapshot snapshot = RootConfiguration.getSnapshot(context);
+        if (snapshot == null) { return; }
+
+        final Map<String,String> candidates = new LinkedHashMap<String,String>();
+        List<String> keys = new ArrayList<String>();
+        snapshot.addKeys(keys);
+        Collections.sort(keys);
+        for (String key : keys) {
+            String property = snapshot.get(key);
+            if (Configuration.isDynamic(property) && property.indexOf(':') != -1 && property.charAt(1) != '\u0000') {
+                DynamicProperty dynamic = DynamicProperty.get(context, property);
+                if (dynamic.isCache() && dynamic.getInvalidDirective() == null) {
+                    candidates.put(key, property);
+                }
+            }
+        }
+        if (candidates.isEmpty()) { return; }
+
+        BootstrapNotifier.sendCheckpoint(context, "Pre-evaluating " + candidates.size() + " dynamic property entries...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DynamicPropertyPreEvaluator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Map<String,Future<String>> futures = new LinkedHashMap<String,Future<String>>();
+        for (final Map.Entry<String,String> candidate : candidates.entrySet()) {
+            futures.put(candidate.getKey(), pool.submit(new Callable<String>() {
+                public String call() {
+                    CallContext worker_context = RootContext.getFallbackCallContext();
+                    return Configuration.evaluateProperty(worker_context, null, candidate.getKey(), candidate.getValue(), false);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        Map<String,String[]> results  = new HashMap<String,String[]>();
+        Map<String,String>   failures = new LinkedHashMap<String,String>();
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Map.Entry<String,Future<String>> future : futures.entrySet()) {
+            String key = future.getKey();
+            try {
+                String value = future.getValue().get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (value == null) {
+                    failures.put(key, "result is null");
+                } else {
+                    results.put(key, new String[] { candidates.get(key), value });
+                }
+            } catch (ExecutionException ee) {
+                failures.put(key, ee.getCause() == null ? ee.toString() : ee.getCause().toString());
+            } catch (TimeoutException te) {
+                failures.put(key, "timeout");
+            } catch (InterruptedException ie) {
+                failures.put(key, "interrupted");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        pool.shutdownNow();
+
+        RootConfiguration.cachePropertyEntries(context, results);
+
+        if (failures.isEmpty() == false) {
+            StringBuilder report = new StringBuilder();
+            for (Map.Entry<String,String> failure : failures.entrySet()) {
+                report.append("\n  ").append(failure.getKey()).append(": ").append(failure.getValue());
+            }
+            Configuration.messenger.message(context, MessageText.create(context, "Pre-evaluation of %(count) dynamic property entries failed:%(report)", "count", Integer.toString(failures.size()), "report", report.toString()));
+        }
+
+        BootstrapNotifier.sendCheckpoint(context, "Pre-evaluating dynamic property entries: done, " + results.size() + " evaluated, " + failures.size() + " failed.");
+    }
+}
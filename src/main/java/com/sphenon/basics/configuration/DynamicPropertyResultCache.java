@@ -0,0 +1,159 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+   A bounded cache for the results of dynamic entries with a "Memo" or
+   "TTL=<ms>" directive, see {@link Configuration#evaluateAndCacheProperty}.
+
+   Results are keyed by the fully qualified property key and additionally
+   record the raw dynamic value they were evaluated from, so a modified
+   entry misses the cache and a lookup does not allocate. Only results
+   evaluated in the root configuration are cached; lookups within a
+   ConfigurationContext, whose results may depend on the context, are not
+   memoized. Memo results are
+   kept until evicted, TTL results additionally expire.
+
+   Lookups do not lock; each entry records it's last access time. If the
+   cache exceeds it's maximum size, expired entries and the least recently
+   used eighth of the remaining entries are evicted in one sweep, which
+   approximates LRU order without maintaining a linked list on each read.
+ */
+public class DynamicPropertyResultCache {
+
+    static protected class Entry {
+        public Entry(String raw, String value, long expires) { this.raw = raw; this.value = value; this.expires = expires; }
+        public final    String raw;
+        public final    String value;
+        public final    long   expires;        // Long.MAX_VALUE if never
+        public volatile long   last_access;
+    }
+
+    static protected class Candidate {
+        public Candidate(String key, Entry entry, long last_access) { this.key = key; this.entry = entry; this.last_access = last_access; }
+        public final String key;
+        public final Entry  entry;
+        public final long   last_access;
+    }
+
+    static protected ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+
+    static protected volatile int maximum_size = 1024;
+
+    static protected AtomicLong hits      = new AtomicLong();
+    static protected AtomicLong misses    = new AtomicLong();
+    static protected AtomicLong evictions = new AtomicLong();
+
+    /**
+       @param key The fully qualified property key
+       @param raw The dynamic value of the entry
+       @return The cached result, or null if there is none or it has expired
+     */
+    static public String get (String key, String raw) {
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.raw == raw || entry.raw.equals(raw))) {
+            long now = System.currentTimeMillis();
+            if (now < entry.expires) {
+                entry.last_access = now;
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+       @param key         The fully qualified property key
+       @param raw         The dynamic value of the entry
+       @param value       The result of the evaluation
+       @param time_to_live Milliseconds until the result expires, or a
+                           negative value if it does not expire
+     */
+    static public void put (String key, String raw, String value, long time_to_live) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(raw, value, time_to_live < 0L ? Long.MAX_VALUE : now + time_to_live);
+        entry.last_access = now;
+        entries.put(key, entry);
+        if (entries.size() > maximum_size) {
+            evict(now);
+        }
+    }
+
+    static protected synchronized void evict (long now) {
+        if (entries.size() <= maximum_size) { return; }
+        // access times are copied, since concurrent lookups keep updating
+        // them, which would break the contract of the comparator
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+            if (entry.getValue().expires <= now) {
+                if (entries.remove(entry.getKey(), entry.getValue())) { evictions.incrementAndGet(); }
+            } else {
+                candidates.add(new Candidate(entry.getKey(), entry.getValue(), entry.getValue().last_access));
+            }
+        }
+        int excess = entries.size() - maximum_size + maximum_size / 8;
+        if (excess <= 0) { return; }
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                return a.last_access < b.last_access ? -1 : (a.last_access == b.last_access ? 0 : 1);
+            }
+        });
+        for (int i=0; i < excess && i < candidates.size(); i++) {
+            if (entries.remove(candidates.get(i).key, candidates.get(i).entry)) { evictions.incrementAndGet(); }
+        }
+    }
+
+    static public void setMaximumSize (int new_maximum_size) {
+        maximum_size = Math.max(1, new_maximum_size);
+    }
+
+    static public int getMaximumSize () {
+        return maximum_size;
+    }
+
+    static public int size () {
+        return entries.size();
+    }
+
+    static public long getHits () {
+        return hits.get();
+    }
+
+    static public long getMisses () {
+        return misses.get();
+    }
+
+    static public long getEvictions () {
+        return evictions.get();
+    }
+
+    /**
+       Removes the result for the given key, if any.
+     */
+    static public void remove (String key) {
+        entries.remove(key);
+    }
+
+    /**
+       Removes all results, counters are kept.
+     */
+    static public void clear () {
+        entries.clear();
+    }
+}
@@ -0,0 +1,233 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.io.*;
+
+/**
+   A file which keeps the results of cacheable dynamic entries (those with
+   a "Cache" directive) across restarts.
+
+   Each record holds the key and raw dynamic value of an entry, the keys
+   read during it's evaluation (see {@link DynamicPropertyDependencies}),
+   a fingerprint of the values of these keys, and the result. On lookup, a
+   record is used only if the raw value is unchanged and the fingerprint
+   of the current values of the recorded keys matches; otherwise the entry
+   is evaluated as usual and the record is replaced.
+
+   Hence, entries must only depend on the configuration entries they
+   read; e.g. JavaScript entries which consult the environment directly
+   must not be used with an enabled store.
+
+   Enabled via property com.sphenon.basics.configuration.ResultStore,
+   which names the file. The file is written when the JVM shuts down, and
+   after the startup pre-evaluation, if enabled; it is replaced atomically
+   so that a crash leaves the previous version intact.
+ */
+public class DynamicPropertyResultStore {
+
+    static protected class Record {
+        public Record(String raw, String[] reads, long fingerprint, String value) { this.raw = raw; this.reads = reads; this.fingerprint = fingerprint; this.value = value; }
+        public final String   raw;
+        public final String[] reads;
+        public final long     fingerprint;
+        public final String   value;
+    }
+
+    static protected final int MAGIC = 0x53505231;  // "SPR1"
+
+    static protected File                file;
+    static protected Map<String,Record>  records;
+    static protected boolean             modified;
+    static protected volatile boolean    enabled;
+
+    /**
+       Opens the store and reads the records saved previously; registers a
+       shutdown hook which saves the store.
+
+       @param path The file containing the store
+     */
+    static public synchronized void open (CallContext context, String path) {
+        if (enabled) { return; }
+        file     = new File(path);
+        records  = new HashMap<String,Record>();
+        modified = false;
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() == MAGIC) {
+                        long length = file.length();
+                        int count = readCount(in, length / RECORD_MINIMUM);
+                        for (int r=0; r<count; r++) {
+                            String   key   = in.readUTF();
+                            String   raw   = in.readUTF();
+                            String[] reads = new String[readCount(in, length / 2)];
+                            for (int i=0; i<reads.length; i++) { reads[i] = in.readUTF(); }
+                            long     fingerprint = in.readLong();
+                            String   value = in.readUTF();
+                            records.put(key, new Record(raw, reads, fingerprint, value));
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ioe) {
+                // unreadable or truncated, results are evaluated and the store rewritten
+                records.clear();
+            } catch (RuntimeException re) {
+                // damaged, same
+                records.clear();
+            }
+        }
+        enabled = true;
+        BootstrapNotifier.sendCheckpoint(context, "Dynamic property result store '" + path + "': " + records.size() + " records");
+        Runtime.getRuntime().addShutdownHook(new Thread("DynamicPropertyResultStore") {
+            public void run() {
+                save(null);
+            }
+        });
+    }
+
+    // key, raw value, read count, fingerprint and value, with empty strings
+    static protected final int RECORD_MINIMUM = 2 + 2 + 4 + 8 + 2;
+
+    /**
+       Reads a count, rejecting values of damaged files which exceed what
+       the file can hold, before anything is allocated.
+
+       @param maximum The number of the smallest possible items the file
+                      can hold
+     */
+    static protected int readCount (DataInputStream in, long maximum) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maximum) {
+            throw new IOException("invalid count in dynamic property result store");
+        }
+        return count;
+    }
+
+    static public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+       Computes a fingerprint of the current values of the given keys. The
+       raw values are used, i.e. dynamic entries are not evaluated (which
+       would cache their results as a side effect), their expression text
+       is fingerprinted instead.
+     */
+    static protected long fingerprint (CallContext context, String[] reads) {
+        long hash = 0xcbf29ce484222325L;
+        for (String read : reads) {
+            String value = RootConfiguration.getRawPropertyEntry(context, read);
+            hash = mix(hash, read);
+            hash = mix(hash, value == null ? "\u0001" : value);
+        }
+        return hash;
+    }
+
+    static protected long mix (long hash, String string) {
+        for (int i=0; i<string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= 0xff;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+       @param key The fully qualified key of the entry
+       @param raw The dynamic value of the entry
+       @return The stored record, if it is still valid, otherwise null
+     */
+    static protected Record lookup (CallContext context, String key, String raw) {
+        Record record;
+        synchronized (DynamicPropertyResultStore.class) {
+            record = (records == null ? null : records.get(key));
+        }
+        if (record == null || record.raw.equals(raw) == false) { return null; }
+        return (fingerprint(context, record.reads) == record.fingerprint ? record : null);
+    }
+
+    /**
+       Stores the result of an evaluation.
+
+       @param reads The keys read during evaluation
+     */
+    static protected void store (CallContext context, String key, String raw, Set<String> reads, String value) {
+        String[] sorted = reads.toArray(new String[reads.size()]);
+        Arrays.sort(sorted);
+        Record record = new Record(raw, sorted, fingerprint(context, sorted), value);
+        synchronized (DynamicPropertyResultStore.class) {
+            if (records != null) {
+                records.put(key, record);
+                modified = true;
+            }
+        }
+    }
+
+    /**
+       Writes the store, if it has been modified.
+     */
+    static public synchronized void save (CallContext context) {
+        if (enabled == false || modified == false) { return; }
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                List<Map.Entry<String,Record>> entries = new ArrayList<Map.Entry<String,Record>>();
+                for (Map.Entry<String,Record> entry : records.entrySet()) {
+                    if (fits(entry.getKey()) && fits(entry.getValue().raw) && fits(entry.getValue().value)) {
+                        entries.add(entry);
+                    }
+                }
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+                for (Map.Entry<String,Record> entry : entries) {
+                    Record record = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(record.raw);
+                    out.writeInt(record.reads.length);
+                    for (String read : record.reads) { out.writeUTF(read); }
+                    out.writeLong(record.fingerprint);
+                    out.writeUTF(record.value);
+                }
+            } finally {
+                out.close();
+            }
+            ConfigurationFiles.replaceAtomically(temporary, file);
+            modified = false;
+        } catch (IOException ioe) {
+            temporary.delete();
+            if (context != null) {
+                Configuration.messenger.message(context, MessageText.create(context, "Could not save dynamic property result store '%(file)': %(reason)", "file", file.getPath(), "reason", ioe.toString()));
+            }
+        }
+    }
+
+    /**
+       DataOutput.writeUTF is limited to 65535 bytes, longer strings are not
+       stored (a char takes at most 3 bytes).
+     */
+    static protected boolean fits (String string) {
+        return string.length() < 21845;
+    }
+}
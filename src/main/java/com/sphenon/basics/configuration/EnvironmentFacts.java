@@ -0,0 +1,151 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+   Resolves the host identity in the background, so that a slow or
+   misconfigured name resolver does not block startup.
+
+   Resolution is started by RootConfiguration.initialiseConfigFolders and
+   awaited only when the host name is actually needed, i.e. by variant
+   rules using host or hostclass, see RootConfiguration.getHost. If it
+   does not complete within the timeout given by system property
+   com.sphenon.basics.configuration.HostResolutionTimeout (milliseconds,
+   default 3000), or fails, the host name is taken from the environment
+   variable HOSTNAME, from /etc/hostname, or from the name resolved last
+   time, in this order. The latter is kept in the file named by system
+   property com.sphenon.basics.configuration.HostCache, if set.
+
+   The resolution itself is delegated to a {@link
+   ConfigurationEnvironmentFacts} provider, by default {@link
+   ConfigurationEnvironmentFacts_LocalHost}.
+ */
+public class EnvironmentFacts {
+
+    static protected long   timeout    = Long.getLong("com.sphenon.basics.configuration.HostResolutionTimeout", 3000L);
+    static protected String cache_path = System.getProperty("com.sphenon.basics.configuration.HostCache");
+
+    static protected FutureTask<String> host_name;
+
+    /**
+       Starts resolving the host name in a background thread, if not
+       already started.
+
+       Note: method has no context, since it's really called "very-first".
+     */
+    static public synchronized void start () {
+        if (host_name != null) { return; }
+        final ConfigurationEnvironmentFacts provider = createProvider();
+        host_name = new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                String name = provider.getHostName();
+                if (name != null && name.isEmpty() == false) {
+                    writeCache(name);
+                }
+                return name;
+            }
+        });
+        Thread thread = new Thread(host_name, "HostResolver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static protected ConfigurationEnvironmentFacts createProvider () {
+        String class_name = System.getProperty("com.sphenon.basics.configuration.EnvironmentFacts");
+        if (class_name != null) {
+            try {
+                return (ConfigurationEnvironmentFacts) Class.forName(class_name).getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                // reported when the host name is retrieved, the default is used
+                provider_failure = class_name + ": " + e;
+            }
+        }
+        return new ConfigurationEnvironmentFacts_LocalHost();
+    }
+
+    static protected String provider_failure;
+
+    /**
+       Retrieves the host name, waiting for the background resolution at
+       most until the timeout.
+
+       @return The host name, "?" if it is not known at all
+     */
+    static public String getHostName (CallContext context) {
+        start();
+        if (provider_failure != null) {
+            Configuration.messenger.message(context, MessageText.create(context, "Could not instantiate environment facts provider '%(provider)', using default", "provider", provider_failure));
+            provider_failure = null;
+        }
+        String name = null;
+        try {
+            name = host_name.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            BootstrapNotifier.sendCheckpoint(context, "Host name resolution did not complete within " + timeout + " ms, using fallback");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            BootstrapNotifier.sendTrace(context, "Host name resolution failed: " + ee.getCause());
+        }
+        if (name == null || name.isEmpty()) { name = System.getenv("HOSTNAME"); }
+        if (name == null || name.isEmpty()) { name = readFirstLine("/etc/hostname"); }
+        if (name == null || name.isEmpty()) { name = (cache_path == null ? null : readFirstLine(cache_path)); }
+        return (name == null || name.isEmpty() ? "?" : name);
+    }
+
+    static protected String readFirstLine (String path) {
+        File file = new File(path);
+        if (file.canRead() == false) { return null; }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                return (line == null ? null : line.trim());
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    static protected void writeCache (String name) {
+        if (cache_path == null || name.equals(readFirstLine(cache_path))) { return; }
+        File file      = new File(cache_path);
+        File temporary = null;
+        try {
+            // unique, since several JVMs may share the cache; replaced atomically, so readers never see a partial name
+            temporary = File.createTempFile(file.getName() + ".new", ".tmp", file.getAbsoluteFile().getParentFile());
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+            try {
+                writer.write(name);
+                writer.write("\n");
+            } finally {
+                writer.close();
+            }
+            ConfigurationFiles.replaceAtomically(temporary, file);
+        } catch (IOException ioe) {
+            // the cache is only a last resort fallback
+            if (temporary != null) { temporary.delete(); }
+        }
+    }
+}
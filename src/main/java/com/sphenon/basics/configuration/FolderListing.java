@@ -0,0 +1,101 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+   Caches the names of the files within configuration folders, so that
+   the many probes for variant files, most of which do not exist, are
+   answered from memory instead of one stat call each, see {@link
+   isKnownAbsent}.
+
+   Each folder is listed once and the listing is reused for the number of
+   milliseconds given by system property
+   com.sphenon.basics.configuration.FolderListingTTL (default 5000, 0
+   disables the cache).
+   RootConfiguration.reload, which is also triggered by the
+   ConfigurationWatcher, discards all listings before checking the
+   sources, so that reloads see files created or deleted meanwhile.
+
+   Only absence is answered from the listing; files which are listed are
+   checked as usual, which also covers e.g. broken links.
+ */
+public class FolderListing {
+
+    static protected class Listing {
+        public Listing(long time, Set<String> names) { this.time = time; this.names = names; }
+        public final long        time;
+        public final Set<String> names;     // null if the folder could not be listed
+    }
+
+    static protected long ttl = Long.getLong("com.sphenon.basics.configuration.FolderListingTTL", 5000L);
+
+    static protected ConcurrentHashMap<String,Listing> listings = new ConcurrentHashMap<String,Listing>();
+
+    /**
+       @return true if the file's folder does not exist or does not contain
+               it, false if the file may exist
+     */
+    static public boolean isKnownAbsent (File file) {
+        if (ttl <= 0) { return false; }
+        File folder = file.getParentFile();
+        if (folder == null) { return false; }
+        Set<String> names = getNames(folder.getPath());
+        return (names != null && names.contains(file.getName()) == false);
+    }
+
+    static protected Set<String> getNames (String folder) {
+        long now = System.currentTimeMillis();
+        Listing listing = listings.get(folder);
+        if (listing == null || now - listing.time > ttl) {
+            listing = new Listing(now, list(folder));
+            listings.put(folder, listing);
+        }
+        return listing.names;
+    }
+
+    static protected Set<String> list (String folder) {
+        Set<String> names = new HashSet<String>();
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(folder));
+            try {
+                for (Path path : stream) {
+                    names.add(path.getFileName().toString());
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (NoSuchFileException nsfe) {
+            // folder does not exist, so no file within it does
+        } catch (NotDirectoryException nde) {
+            // same
+        } catch (IOException ioe) {
+            return null;
+        } catch (InvalidPathException ipe) {
+            return null;
+        }
+        return names;
+    }
+
+    /**
+       Discards all listings.
+     */
+    static public void invalidateAll () {
+        listings.clear();
+    }
+}
@@ -0,0 +1,289 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+
+/**
+   A read-only property table kept in a memory-mapped file instead of the
+   heap, used for large generated default property resources, see
+   RootConfiguration.loadDefaultPropertyResources.
+
+   The entries are stored sorted by the UTF-8 bytes of their keys, so that
+   lookups are a binary search over the mapped file, which compares the
+   key bytes in place and only allocates a string for the value found.
+   Enumeration of keys below a prefix is a range scan. The tables thus cost
+   almost no heap, are not scanned by the garbage collector and are shared
+   via the page cache.
+
+   Each store file records the stamp of the resource it was built from
+   (see ConfigurationFiles.stamp), an up to date file is mapped without
+   reading the resource at all. File layout:
+
+   <pre>
+   int magic, string stamp, int count
+   count * int offset, in key order
+   at each offset: string key, string value
+   </pre>
+
+   where strings are stored as int length plus UTF-8 bytes.
+ */
+public class OffHeapPropertyStore {
+
+    static protected final int     MAGIC = 0x534f4831;  // "SOH1"
+    static protected final Charset UTF8  = Charset.forName("UTF-8");
+
+    protected String     id;
+    protected ByteBuffer buffer;
+    protected int        count;
+    protected int        offsets;
+
+    protected OffHeapPropertyStore (String id, ByteBuffer buffer) {
+        this.id      = id;
+        this.buffer  = buffer;
+        int position = 4;
+        position    += 4 + buffer.getInt(position);
+        this.count   = buffer.getInt(position);
+        this.offsets = position + 4;
+    }
+
+    static protected File getFile (CallContext context, String folder, PropertySource source) {
+        return new File(folder, source.getId(context).replaceAll("[^A-Za-z0-9._-]", "_") + ".offheap");
+    }
+
+    /**
+       Maps the store file of the given source, if it exists and is up to
+       date.
+
+       @param folder The folder where store files are kept
+       @return The store, or null if it has to be (re)built
+     */
+    static public OffHeapPropertyStore open (CallContext context, String folder, PropertySource source) {
+        String stamp = source.getStamp(context);
+        if (stamp == null) { return null; }
+        File file = getFile(context, folder, source);
+        if (file.exists() == false) { return null; }
+        try {
+            ByteBuffer buffer = map(file);
+            if (buffer.getInt(0) != MAGIC) { return null; }
+            ByteBuffer header = buffer.duplicate();
+            header.position(4);
+            if (stamp.equals(getString(header)) == false) { return null; }
+            OffHeapPropertyStore store = new OffHeapPropertyStore(source.getId(context), buffer);
+            return (store.isComplete() ? store : null);
+        } catch (IOException ioe) {
+            return null;
+        } catch (BufferUnderflowException bue) {
+            return null;
+        } catch (IndexOutOfBoundsException ioobe) {
+            return null;
+        }
+    }
+
+    /**
+       Writes the given entries into the store file of the given source and
+       maps it.
+
+       @param folder The folder where store files are kept
+       @return The store, or null if the source can not be stamped or the
+               file could not be written
+     */
+    static public OffHeapPropertyStore create (CallContext context, String folder, PropertySource source, Properties entries) {
+        String stamp = source.getStamp(context);
+        if (stamp == null) { return null; }
+
+        List<byte[][]> sorted = new ArrayList<byte[][]>(entries.size());
+        for (String key : entries.stringPropertyNames()) {
+            sorted.add(new byte[][] { key.getBytes(UTF8), entries.getProperty(key).getBytes(UTF8) });
+        }
+        Collections.sort(sorted, new Comparator<byte[][]>() {
+            public int compare(byte[][] e1, byte[][] e2) {
+                return OffHeapPropertyStore.compare(e1[0], e2[0]);
+            }
+        });
+
+        byte[] stamp_bytes = stamp.getBytes(UTF8);
+        File file      = getFile(context, folder, source);
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(stamp_bytes.length);
+                out.write(stamp_bytes);
+                out.writeInt(sorted.size());
+                int offset = 4 + 4 + stamp_bytes.length + 4 + 4 * sorted.size();
+                for (byte[][] entry : sorted) {
+                    out.writeInt(offset);
+                    offset += 4 + entry[0].length + 4 + entry[1].length;
+                }
+                for (byte[][] entry : sorted) {
+                    out.writeInt(entry[0].length);
+                    out.write(entry[0]);
+                    out.writeInt(entry[1].length);
+                    out.write(entry[1]);
+                }
+            } finally {
+                out.close();
+            }
+            ConfigurationFiles.replaceAtomically(temporary, file);
+            return new OffHeapPropertyStore(source.getId(context), map(file));
+        } catch (IOException ioe) {
+            Configuration.messenger.message(context, MessageText.create(context, "Could not write off-heap property store '%(file)': %(reason)", "file", file.getPath(), "reason", ioe.toString()));
+            return null;
+        }
+    }
+
+    /**
+       Checks that the offset table and the first and last entry lie
+       within the file and that the last entry ends with it, so that a
+       truncated or damaged file is rebuilt instead of failing on lookup.
+     */
+    protected boolean isComplete () {
+        int limit = this.buffer.limit();
+        if (this.count < 0 || this.offsets + 4L * this.count > limit) { return false; }
+        if (this.count == 0) { return this.offsets == limit; }
+        if (getOffset(0) != this.offsets + 4 * this.count) { return false; }
+        int last = getOffset(this.count - 1);
+        if (last < getOffset(0) || last > limit - 8) { return false; }
+        long value = last + 4L + this.buffer.getInt(last);
+        if (value < last + 4L || value > limit - 4) { return false; }
+        long end = value + 4L + this.buffer.getInt((int) value);
+        return (end == limit);
+    }
+
+    static protected ByteBuffer map (File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static protected String getString (ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static protected int compare (byte[] b1, byte[] b2) {
+        int length = Math.min(b1.length, b2.length);
+        for (int i=0; i<length; i++) {
+            int c = (b1[i] & 0xff) - (b2[i] & 0xff);
+            if (c != 0) { return c; }
+        }
+        return b1.length - b2.length;
+    }
+
+    /**
+       Compares the key stored at the given offset with the given bytes.
+
+       @param prefix_only If true, a stored key starting with the given
+                          bytes is considered equal
+     */
+    protected int compare (int offset, byte[] key, boolean prefix_only) {
+        int length = this.buffer.getInt(offset);
+        offset += 4;
+        int common = Math.min(length, key.length);
+        for (int i=0; i<common; i++) {
+            int c = (this.buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) { return c; }
+        }
+        return (prefix_only && length >= key.length) ? 0 : length - key.length;
+    }
+
+    protected int getOffset (int index) {
+        return this.buffer.getInt(this.offsets + 4 * index);
+    }
+
+    /**
+       @return The index of the first entry not less than the given key
+     */
+    protected int lowerBound (byte[] key, boolean prefix_only) {
+        int low = 0, high = this.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(getOffset(middle), key, prefix_only) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    protected String getString (int offset) {
+        byte[] bytes = new byte[this.buffer.getInt(offset)];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+       Looks up a property entry.
+
+       @param key A fully qualified property key
+       @return The value of the entry, or null if there is none
+     */
+    public String get (String full_key) {
+        byte[] key = full_key.getBytes(UTF8);
+        int index = lowerBound(key, false);
+        if (index == this.count) { return null; }
+        int offset = getOffset(index);
+        if (compare(offset, key, false) != 0) { return null; }
+        return getString(offset + 4 + key.length);
+    }
+
+    /**
+       Adds the keys of all entries which are equal to or located below the
+       given prefix to the given collection.
+
+       @param prefix A dot separated prefix, null denotes all keys
+     */
+    public void addKeys (String prefix, Collection<String> target) {
+        if (prefix == null) {
+            for (int index=0; index<this.count; index++) {
+                target.add(getString(getOffset(index)));
+            }
+            return;
+        }
+        byte[] key = prefix.getBytes(UTF8);
+        for (int index = lowerBound(key, true); index < this.count; index++) {
+            int offset = getOffset(index);
+            if (compare(offset, key, true) != 0) { break; }
+            String candidate = getString(offset);
+            if (candidate.length() == prefix.length() || candidate.charAt(prefix.length()) == '.') {
+                target.add(candidate);
+            }
+        }
+    }
+
+    public int size () {
+        return this.count;
+    }
+
+    public String getId () {
+        return this.id;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+   A parser for property files with exactly the semantics of
+   java.util.Properties.load(InputStream), i.e. ISO 8859-1 encoded,
+   natural lines terminated by LF, CR or CR LF, continuation lines,
+   comments starting with '#' or '!', keys terminated by the first
+   unescaped '=', ':' or white space, and the escapes \t, \n, \r, \f and
+   &#92;uXXXX.
+
+   The whole file is read into a single buffer, which is scanned in one
+   pass; entries are put directly into the given table. This avoids the
+   intermediate stream and line reader layers and their buffer copies,
+   see PropertySource.load.
+
+   Files are not memory-mapped: they are edited and reloaded while the
+   application runs, see ConfigurationWatcher, and a mapped file which is
+   truncated meanwhile makes reads fail with an InternalError instead of
+   an IOException; besides, on some platforms a mapped file can not be
+   replaced until the mapping is garbage collected.
+ */
+public class PropertyFileParser {
+
+    /**
+       Reads and parses a file.
+
+       @param target Receives the entries
+     */
+    static public void parse (File file, Map<Object,Object> target) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size >= Integer.MAX_VALUE - 8) {
+                throw new IOException("property file too large: " + file.getPath());
+            }
+            // one more byte, so that a file growing meanwhile is detected
+            ByteBuffer buffer = ByteBuffer.allocate((int) size + 1);
+            while (channel.read(buffer) != -1) {
+                if (buffer.hasRemaining() == false) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+            buffer.flip();
+            parse(buffer, target);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+       Reads and parses a stream, e.g. a class resource. The stream is not
+       closed.
+
+       @param target Receives the entries
+     */
+    static public void parse (InputStream in, Map<Object,Object> target) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (channel.read(buffer) != -1) {
+            if (buffer.hasRemaining() == false) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        parse(buffer, target);
+    }
+
+    /**
+       Parses the remaining bytes of the given buffer.
+
+       @param target Receives the entries
+       @throws IllegalArgumentException If a malformed &#92;uXXXX escape is
+                                        encountered, like Properties.load
+     */
+    static public void parse (ByteBuffer buffer, Map<Object,Object> target) {
+        int    position = buffer.position();
+        int    limit    = buffer.limit();
+        char[] line     = new char[256];
+
+        while (true) {
+            // --- read one logical line, like Properties.LineReader ---
+            int     length               = 0;
+            boolean skip_white_space     = true;
+            boolean is_comment_line      = false;
+            boolean appended_line_begin  = false;
+            boolean preceding_backslash  = false;
+            boolean skip_lf              = false;
+            boolean end_of_line          = false;
+
+            while (true) {
+                if (position >= limit) {
+                    if (length == 0 || is_comment_line) { return; }
+                    if (preceding_backslash) { length--; }
+                    break;
+                }
+                char c = (char) (buffer.get(position++) & 0xff);
+                if (skip_lf) {
+                    skip_lf = false;
+                    if (c == '\n') { continue; }
+                }
+                if (skip_white_space) {
+                    if (c == ' ' || c == '\t' || c == '\f') { continue; }
+                    if (appended_line_begin == false && (c == '\r' || c == '\n')) { continue; }
+                    skip_white_space    = false;
+                    appended_line_begin = false;
+                }
+                if (length == 0 && is_comment_line == false) {
+                    if (c == '#' || c == '!') {
+                        is_comment_line = true;
+                        continue;
+                    }
+                }
+                if (c != '\n' && c != '\r') {
+                    if (is_comment_line) { continue; }
+                    if (length == line.length) { line = Arrays.copyOf(line, length * 2); }
+                    line[length++] = c;
+                    preceding_backslash = (c == '\\' ? preceding_backslash == false : false);
+                } else {
+                    if (is_comment_line || length == 0) {
+                        is_comment_line  = false;
+                        skip_white_space = true;
+                        length           = 0;
+                        continue;
+                    }
+                    if (position >= limit) {
+                        if (preceding_backslash) { length--; }
+                        break;
+                    }
+                    if (preceding_backslash) {
+                        length--;
+                        skip_white_space    = true;
+                        appended_line_begin = true;
+                        preceding_backslash = false;
+                        if (c == '\r') { skip_lf = true; }
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            // --- split into key and value, like Properties.load0 ---
+            int     key_length  = 0;
+            int     value_start = length;
+            boolean has_separator = false;
+            boolean backslash     = false;
+            while (key_length < length) {
+                char c = line[key_length];
+                if ((c == '=' || c == ':') && backslash == false) {
+                    value_start   = key_length + 1;
+                    has_separator = true;
+                    break;
+                } else if ((c == ' ' || c == '\t' || c == '\f') && backslash == false) {
+                    value_start = key_length + 1;
+                    break;
+                }
+                backslash = (c == '\\' ? backslash == false : false);
+                key_length++;
+            }
+            while (value_start < length) {
+                char c = line[value_start];
+                if (c != ' ' && c != '\t' && c != '\f') {
+                    if (has_separator == false && (c == '=' || c == ':')) {
+                        has_separator = true;
+                    } else {
+                        break;
+                    }
+                }
+                value_start++;
+            }
+            target.put(convert(line, 0, key_length), convert(line, value_start, length - value_start));
+
+            if (position >= limit) { return; }
+        }
+    }
+
+    /**
+       Resolves escapes, like Properties.loadConvert.
+     */
+    static protected String convert (char[] in, int offset, int length) {
+        int end = offset + length;
+        int first_escape = offset;
+        while (first_escape < end && in[first_escape] != '\\') { first_escape++; }
+        if (first_escape == end) {
+            return new String(in, offset, length);
+        }
+        char[] out = new char[length];
+        int out_length = first_escape - offset;
+        System.arraycopy(in, offset, out, 0, out_length);
+        int position = first_escape;
+        while (position < end) {
+            char c = in[position++];
+            if (c == '\\') {
+                c = in[position++];
+                if (c == 'u') {
+                    int value = 0;
+                    for (int i=0; i<4; i++) {
+                        if (position >= end) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        c = in[position++];
+                        int digit = Character.digit(c, 16);
+                        if (digit == -1) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        value = (value << 4) + digit;
+                    }
+                    out[out_length++] = (char) value;
+                } else {
+                    if      (c == 't') { c = '\t'; }
+                    else if (c == 'r') { c = '\r'; }
+                    else if (c == 'n') { c = '\n'; }
+                    else if (c == 'f') { c = '\f'; }
+                    out[out_length++] = c;
+                }
+            } else {
+                out[out_length++] = c;
+            }
+        }
+        return new String(out, 0, out_length);
+    }
+}
@@ -0,0 +1,215 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.*;
+
+/**
+   A segment-wise trie over the dot separated keys of a property table.
+
+   Used to answer "parent" searches (see Configuration.getProperty) in a
+   single descent instead of one string concatenation and one hash probe
+   per prefix level, and to enumerate all keys below a given prefix.
+
+   Children are looked up by character ranges of the queried strings, so
+   searches do not allocate substrings. Instances are immutable after
+   construction.
+ */
+public class PropertyKeyIndex {
+
+    static protected class Node {
+        public Node(String segment) { this.segment = segment; this.segment_hash = hash(segment, 0, segment.length()); }
+
+        public String   segment;
+        public int      segment_hash;
+        public String   full_key;       // non null if an entry with this key exists
+        public Node[]   children;       // open addressing table, null if there are none
+
+        protected Map<String,Node> building;
+
+        public Node getOrCreate(String child_segment) {
+            if (this.building == null) { this.building = new HashMap<String,Node>(4); }
+            Node child = this.building.get(child_segment);
+            if (child == null) {
+                child = new Node(child_segment);
+                this.building.put(child_segment, child);
+            }
+            return child;
+        }
+
+        public void freeze() {
+            if (this.building == null) { return; }
+            int capacity = 2;
+            while (capacity < this.building.size() * 2) { capacity <<= 1; }
+            this.children = new Node[capacity];
+            int mask = capacity - 1;
+            for (Node child : this.building.values()) {
+                int index = child.segment_hash & mask;
+                while (this.children[index] != null) { index = (index + 1) & mask; }
+                this.children[index] = child;
+                child.freeze();
+            }
+            this.building = null;
+        }
+
+        public Node get(String string, int from, int to) {
+            if (this.children == null) { return null; }
+            int mask = this.children.length - 1;
+            int h = hash(string, from, to);
+            int index = h & mask;
+            Node child;
+            int length = to - from;
+            while ((child = this.children[index]) != null) {
+                if (    child.segment_hash == h
+                     && child.segment.length() == length
+                     && child.segment.regionMatches(0, string, from, length)) {
+                    return child;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    static protected int hash(String string, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + string.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    protected Node root;
+
+    /**
+       Builds an index over the given keys.
+
+       @param keys The fully qualified keys, null entries are ignored
+     */
+    public PropertyKeyIndex (String[] keys) {
+        this.root = new Node("");
+        for (String key : keys) {
+            if (key == null) { continue; }
+            Node node = this.root;
+            int from = 0;
+            int to;
+            while ((to = key.indexOf('.', from)) != -1) {
+                node = node.getOrCreate(key.substring(from, to));
+                from = to + 1;
+            }
+            node = node.getOrCreate(key.substring(from));
+            node.full_key = key;
+        }
+        this.root.freeze();
+    }
+
+    /**
+       Descends from the given node along all dot separated segments of the
+       given string.
+
+       @return The node reached, or null if there is no such path
+     */
+    static protected Node descend(Node node, String string) {
+        int from = 0;
+        int to;
+        while (node != null && (to = string.indexOf('.', from)) != -1) {
+            node = node.get(string, from, to);
+            from = to + 1;
+        }
+        return node == null ? null : node.get(string, from, string.length());
+    }
+
+    /**
+       Searches for the deepest existing entry composed of a prefix of
+       "prefix" and "key", in the order described at
+       Configuration.getProperty: for prefix a.b.c and key D, the entries
+       a.b.c.D, a.b.D, a.D and D are tested.
+
+       @param prefix    First part of the entry, optionally shortened, may
+                        be null, but not empty
+       @param key       Last part of the entry, must not be null
+       @param max_depth Only prefixes with at most that many segments are
+                        considered
+       @return The fully qualified key of the entry found, or null
+     */
+    public String find(String prefix, String key, int max_depth) {
+        Node[] path;
+        int depth = 0;
+        if (prefix == null || max_depth == 0) {
+            path = new Node[] { this.root };
+        } else {
+            path = new Node[Math.min(countSegments(prefix), max_depth) + 1];
+            path[0] = this.root;
+            Node node = this.root;
+            int from = 0;
+            int to;
+            while (depth + 1 < path.length) {
+                to = prefix.indexOf('.', from);
+                node = node.get(prefix, from, to == -1 ? prefix.length() : to);
+                if (node == null) { break; }
+                path[++depth] = node;
+                if (to == -1) { break; }
+                from = to + 1;
+            }
+        }
+        for (; depth >= 0; depth--) {
+            Node found = descend(path[depth], key);
+            if (found != null && found.full_key != null) {
+                return found.full_key;
+            }
+        }
+        return null;
+    }
+
+    /**
+       Collects all keys of entries which are equal to or located below the
+       given prefix.
+
+       @param prefix A dot separated prefix, null denotes all keys
+       @return The fully qualified keys found
+     */
+    public List<String> getKeys(String prefix) {
+        List<String> result = new ArrayList<String>();
+        Node node = (prefix == null ? this.root : descend(this.root, prefix));
+        if (node != null) {
+            collect(node, result);
+        }
+        return result;
+    }
+
+    static protected void collect(Node node, List<String> result) {
+        if (node.full_key != null) {
+            result.add(node.full_key);
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null) {
+                    collect(child, result);
+                }
+            }
+        }
+    }
+
+    /**
+       @return The number of dot separated segments in the given string
+     */
+    static public int countSegments(String string) {
+        int count = 1;
+        for (int i = string.indexOf('.'); i != -1; i = string.indexOf('.', i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
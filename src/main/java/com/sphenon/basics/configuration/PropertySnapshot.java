@@ -0,0 +1,331 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   An immutable, flattened copy of the user property table laid over the
+   default property table.
+
+   Snapshots are built by RootConfiguration whenever one of the underlying
+   tables is modified and are published via a volatile reference. Readers
+   therefore never synchronise; they see either the previous or the next
+   complete table.
+
+   The table is split into segments, selected by the low order bits of the
+   spread hash code. Each segment is an open addressing hash map with
+   linear probing and a load factor of at most one half, keys, values and
+   spread hash codes are kept in parallel arrays. A fourth array holds the
+   typed interpretations of the values, see {@link TypedPropertyValue},
+   which are created lazily.
+
+   If only a few keys are modified, the next snapshot is derived from the
+   previous one (see {@link derive}) by rebuilding only the segments
+   containing these keys and sharing all others, so that writing single
+   entries (e.g. caching results of dynamic entries) does not copy the
+   whole table.
+
+   Additionally, a snapshot records keys which are known to be absent
+   from all sources consulted after the tables (i.e. from the system
+   properties). Since any modification publishes a new snapshot, this
+   negative cache is implicitly invalidated by every write.
+ */
+public class PropertySnapshot {
+
+    static protected final int SEGMENT_ENTRIES = 64;
+
+    static protected class Segment {
+        protected final String[] keys;
+        protected final String[] values;
+        protected final int[]    hashes;
+        protected final TypedPropertyValue[] typed;
+        protected final int      mask;
+        protected final int      size;
+
+        protected Segment (int entries) {
+            int capacity = 4;
+            while (capacity < entries * 2) { capacity <<= 1; }
+            this.keys   = new String[capacity];
+            this.values = new String[capacity];
+            this.hashes = new int[capacity];
+            this.typed  = new TypedPropertyValue[capacity];
+            this.mask   = capacity - 1;
+            this.size   = entries;
+        }
+
+        protected void put(int shift, String key, String value, int hash, TypedPropertyValue typed) {
+            int index = (hash >>> shift) & this.mask;
+            while (this.keys[index] != null) {
+                index = (index + 1) & this.mask;
+            }
+            this.keys[index]   = key;
+            this.values[index] = value;
+            this.hashes[index] = hash;
+            this.typed[index]  = typed;
+        }
+    }
+
+    protected final Segment[] segments;
+    protected final int      segment_mask;
+    protected final int      shift;
+    protected final int      size;
+    protected final long     version;
+
+    /**
+       Flattens the given property table, including it's defaults, into a
+       new snapshot.
+
+       @param version    A stamp which is strictly increasing with each
+                         snapshot published
+       @param properties The user properties, with the default properties
+                         attached as defaults
+     */
+    public PropertySnapshot (long version, Properties properties) {
+        Set<String> names = (properties == null ? Collections.<String>emptySet() : properties.stringPropertyNames());
+
+        int count = 1;
+        int shift = 0;
+        while (count * SEGMENT_ENTRIES < names.size()) { count <<= 1; shift++; }
+
+        List<List<String>> members = new ArrayList<List<String>>(count);
+        for (int s=0; s<count; s++) { members.add(new ArrayList<String>()); }
+
+        Map<String,String> values = new HashMap<String,String>();
+        for (String name : names) {
+            String value = properties.getProperty(name);
+            if (value == null) { continue; }
+            values.put(name, value);
+            members.get(hash(name) & (count - 1)).add(name);
+        }
+
+        this.version      = version;
+        this.segments     = new Segment[count];
+        this.segment_mask = count - 1;
+        this.shift        = shift;
+        this.size         = values.size();
+
+        for (int s=0; s<count; s++) {
+            Segment segment = new Segment(members.get(s).size());
+            for (String name : members.get(s)) {
+                segment.put(shift, name, values.get(name), hash(name), null);
+            }
+            this.segments[s] = segment;
+        }
+    }
+
+    protected PropertySnapshot (long version, Segment[] segments, int shift, int size, PropertyKeyIndex index) {
+        this.version      = version;
+        this.segments     = segments;
+        this.segment_mask = segments.length - 1;
+        this.shift        = shift;
+        this.size         = size;
+        this.index        = index;
+    }
+
+    /**
+       Creates a successor of this snapshot, in which the given keys are
+       updated from the given property table. Segments not containing any
+       of these keys are shared with this snapshot, including the typed
+       values already created. If too many keys are modified or the
+       segments grew too large, the table is flattened completely instead.
+
+       @param version       The stamp of the new snapshot
+       @param properties    The user properties, with the default properties
+                            attached as defaults
+       @param modified_keys The keys which may have changed since this
+                            snapshot was created, or null if unknown
+       @return The new snapshot
+     */
+    public PropertySnapshot derive(long version, Properties properties, Collection<String> modified_keys) {
+        if (modified_keys == null || modified_keys.size() > this.segments.length) {
+            return new PropertySnapshot(version, properties);
+        }
+        Map<Integer,Map<String,String>> touched = new HashMap<Integer,Map<String,String>>();
+        for (String key : modified_keys) {
+            Integer s = hash(key) & this.segment_mask;
+            Map<String,String> updates = touched.get(s);
+            if (updates == null) { touched.put(s, updates = new HashMap<String,String>()); }
+            updates.put(key, properties.getProperty(key));
+        }
+        Segment[] segments = this.segments.clone();
+        int size = this.size;
+        boolean keys_changed = false;
+        for (Map.Entry<Integer,Map<String,String>> entry : touched.entrySet()) {
+            Segment old = this.segments[entry.getKey()];
+            Map<String,String> updates = entry.getValue();
+            int entries = old.size;
+            for (Map.Entry<String,String> update : updates.entrySet()) {
+                boolean present = (find(old, update.getKey(), hash(update.getKey())) != -1);
+                if (present && update.getValue() == null) { entries--; keys_changed = true; }
+                if (present == false && update.getValue() != null) { entries++; keys_changed = true; }
+            }
+            if (entries > 4 * SEGMENT_ENTRIES) {
+                return new PropertySnapshot(version, properties);
+            }
+            Segment segment = new Segment(entries);
+            for (int i=0; i<old.keys.length; i++) {
+                String key = old.keys[i];
+                if (key == null || updates.containsKey(key)) { continue; }
+                segment.put(this.shift, key, old.values[i], old.hashes[i], old.typed[i]);
+            }
+            for (Map.Entry<String,String> update : updates.entrySet()) {
+                if (update.getValue() == null) { continue; }
+                String key = update.getKey();
+                int hash = hash(key);
+                int index = find(old, key, hash);
+                segment.put(this.shift, key, update.getValue(), hash, (index != -1 && update.getValue().equals(old.values[index])) ? old.typed[index] : null);
+            }
+            size += entries - old.size;
+            segments[entry.getKey()] = segment;
+        }
+        return new PropertySnapshot(version, segments, this.shift, size, keys_changed ? null : this.index);
+    }
+
+    /**
+       Spreads the hash code of the given key, so that keys with equal low
+       order bits are less likely to collide.
+
+       @param key A fully qualified property key
+       @return The hash code used to address this table
+     */
+    static public int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+       Looks up a property entry.
+
+       @param key A fully qualified property key
+       @return The value of the entry, or null if there is none
+     */
+    public String get(String key) {
+        return get(key, hash(key));
+    }
+
+    /**
+       Looks up a property entry whose spread hash code (see {@link hash})
+       is already known.
+
+       @param key  A fully qualified property key
+       @param hash The result of hash(key)
+       @return The value of the entry, or null if there is none
+     */
+    public String get(String key, int hash) {
+        Segment segment = this.segments[hash & this.segment_mask];
+        int index = find(segment, key, hash);
+        return index == -1 ? null : segment.values[index];
+    }
+
+    /**
+       Looks up a property entry together with it's typed interpretations.
+
+       @param key  A fully qualified property key
+       @param hash The result of hash(key)
+       @return The typed value of the entry, or null if there is none
+     */
+    public TypedPropertyValue getTypedValue(String key, int hash) {
+        Segment segment = this.segments[hash & this.segment_mask];
+        int index = find(segment, key, hash);
+        if (index == -1) { return null; }
+        TypedPropertyValue result = segment.typed[index];
+        if (result == null) {
+            segment.typed[index] = result = new TypedPropertyValue(segment.values[index]);
+        }
+        return result;
+    }
+
+    protected int find(Segment segment, String key, int hash) {
+        int index = (hash >>> this.shift) & segment.mask;
+        String candidate;
+        while ((candidate = segment.keys[index]) != null) {
+            if (segment.hashes[index] == hash && (candidate == key || candidate.equals(key))) {
+                return index;
+            }
+            index = (index + 1) & segment.mask;
+        }
+        return -1;
+    }
+
+    static protected final int MAXIMUM_MISSES = 16384;
+
+    protected final Set<String> misses = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    /**
+       @param key A fully qualified property key
+       @return true if a previous lookup of this key in this snapshot and
+               all subsequent sources failed
+     */
+    public boolean isKnownMissing(String key) {
+        return this.misses.contains(key);
+    }
+
+    /**
+       Records that a lookup of the given key in this snapshot and all
+       subsequent sources failed. The number of recorded keys is limited,
+       further misses are silently not recorded.
+
+       @param key A fully qualified property key
+     */
+    public void addMissing(String key) {
+        if (this.misses.size() < MAXIMUM_MISSES) {
+            this.misses.add(key);
+        }
+    }
+
+    protected volatile PropertyKeyIndex index;
+
+    /**
+       Returns a segment-wise index over the keys of this snapshot. The index
+       is built on first request, derived snapshots with an unchanged key
+       set share the index of their predecessor.
+
+       @return The index
+     */
+    public PropertyKeyIndex getIndex() {
+        PropertyKeyIndex result = this.index;
+        if (result == null) {
+            synchronized (this) {
+                if ((result = this.index) == null) {
+                    List<String> keys = new ArrayList<String>(this.size);
+                    this.addKeys(keys);
+                    this.index = result = new PropertyKeyIndex(keys.toArray(new String[keys.size()]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+       Adds all keys of this snapshot to the given collection.
+     */
+    public void addKeys(Collection<String> target) {
+        for (Segment segment : this.segments) {
+            for (String key : segment.keys) {
+                if (key != null) { target.add(key); }
+            }
+        }
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.exception.*;
+import com.sphenon.basics.monitoring.ProblemState;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+   A single property file which contributes to the user property table,
+   either a class resource or a file within a configuration folder,
+   together with the entries read from it.
+
+   RootConfiguration keeps all sources in load order, so that on a change
+   of a folder file only that file needs to be read again and the effective
+   values of just the keys it contains can be recomputed, see
+   RootConfiguration.reload.
+
+   Several sources can be read concurrently, see {@link loadAll}.
+ */
+public class PropertySource {
+
+    protected Class      from_class;
+    protected String     from_folder;
+    protected String     resource;
+    protected Properties entries;
+    protected long       last_modified = -1L;
+    protected long       length = -1L;
+
+    /**
+       @param from_class  A class where the resource file is retrieved from as
+                          a resource, if non null, the from_folder argument is
+                          ignored
+       @param from_folder A normal file system folder where the resource is
+                          retrieved from as a file
+       @param resource    The name of the resource, without a preceeding path
+     */
+    public PropertySource (CallContext context, Class from_class, String from_folder, String resource) {
+        this.from_class  = from_class;
+        this.from_folder = (from_class == null ? from_folder : null);
+        this.resource    = resource;
+    }
+
+    /**
+       @return An identification of this source, as used in "@Origin"
+               entries
+     */
+    public String getId (CallContext context) {
+        return (this.from_class != null ? this.from_class.getName() : this.from_folder) + "/" + this.resource;
+    }
+
+    /**
+       @return A description of this source for bootstrap notifications
+     */
+    public String getLocation (CallContext context) {
+        return "'" + (this.from_class != null ? this.from_class.getName() : this.from_folder) + "'/'" + this.resource + "'";
+    }
+
+    public String getFolder (CallContext context) {
+        return this.from_folder;
+    }
+
+    /**
+       @return The entries read last, or null if the source did not exist
+     */
+    public Properties getEntries (CallContext context) {
+        return this.entries;
+    }
+
+    /**
+       Computes the stamp of this source, see {@link ConfigurationFiles#stamp}.
+
+       @return The stamp, or null if the source does not exist or can not
+               be stamped
+     */
+    public String getStamp (CallContext context) {
+        if (this.from_class != null) {
+            return ConfigurationFiles.stamp(this.from_class.getResource(this.resource));
+        }
+        File file = getFile();
+        return ConfigurationFiles.stamp(file, file.getPath());
+    }
+
+    protected File getFile () {
+        return new File(this.from_folder + "/" + this.resource);
+    }
+
+    /**
+       Checks whether the source has been modified, created or deleted since
+       it has been read last. Class resources are assumed to be unmodifiable.
+     */
+    public boolean isModified (CallContext context) {
+        if (this.from_folder == null) { return false; }
+        File file = getFile();
+        if (this.last_modified == 0L && FolderListing.isKnownAbsent(file)) { return false; }
+        return (file.lastModified() != this.last_modified || file.length() != this.length);
+    }
+
+    /**
+       Reads the source, see {@link PropertyFileParser}, or takes it's
+       entries from the configuration image, if it is enabled and up to
+       date, see {@link ConfigurationImage}. Class resources known to be
+       absent are not looked up, see {@link ResourceIndex}, nor are folder
+       files, see {@link FolderListing}.
+
+       @return The entries read, or null if the source does not exist
+     */
+    public Properties load (CallContext context) {
+        if (this.from_class != null && ResourceIndex.isKnownAbsent(context, this.from_class, this.resource)) {
+            return (this.entries = null);
+        }
+        if (this.from_class == null && FolderListing.isKnownAbsent(getFile())) {
+            this.last_modified = 0L;
+            this.length        = 0L;
+            return (this.entries = null);
+        }
+        if (ConfigurationImage.isEnabled()) {
+            Properties imaged = ConfigurationImage.lookup(context, this);
+            if (imaged != null) {
+                if (this.from_folder != null) {
+                    File file = getFile();
+                    this.last_modified = file.lastModified();
+                    this.length        = file.length();
+                }
+                return (this.entries = imaged);
+            }
+        }
+        try {
+            Properties loaded = new Properties();
+            if (this.from_class != null) {
+                InputStream in = this.from_class.getResourceAsStream(this.resource);
+                if (in == null) {
+                    return (this.entries = null);
+                }
+                try {
+                    PropertyFileParser.parse(in, loaded);
+                } finally {
+                    in.close();
+                }
+            } else {
+                File file = getFile();
+                this.last_modified = file.lastModified();
+                this.length        = file.length();
+                if (file.exists() == false) {
+                    return (this.entries = null);
+                }
+                PropertyFileParser.parse(file, loaded);
+            }
+            if (ConfigurationImage.isEnabled()) {
+                ConfigurationImage.record(context, this, loaded);
+            }
+            return (this.entries = loaded);
+        } catch (IOException ioe)  {
+            Message message = null;
+            if (this.from_class != null) {
+                message = SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed: " + this.resource + " from class " + this.from_class.getName()), ProblemState.ERROR);
+            } else {
+                message = SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed: " + this.resource + " from folder " + this.from_folder), ProblemState.ERROR);
+            }
+            ExceptionEnvironmentError.createAndThrow(context, ioe, message);
+            throw (ExceptionEnvironmentFailure) null; // compiler insists
+        }
+    }
+
+    /**
+       Parallel loading is disabled via system property
+       com.sphenon.basics.configuration.ParallelLoading=false, since it is
+       needed before any configuration is read.
+     */
+    static protected boolean parallel = (System.getProperty("com.sphenon.basics.configuration.ParallelLoading", "true").equals("false") == false);
+
+    static protected ExecutorService pool;
+
+    static protected synchronized ExecutorService getPool () {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PropertySourceLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+       Reads the given sources concurrently. The caller is expected to merge
+       the results in the order of the list, so that the outcome is the same
+       as if they were read one after the other.
+
+       @param sources The sources to read
+       @return The entries read per source, in the order of the sources,
+               null for sources which do not exist
+     */
+    static public List<Properties> loadAll (final CallContext context, List<PropertySource> sources) {
+        List<Properties> result = new ArrayList<Properties>(sources.size());
+        if (parallel == false || sources.size() < 2) {
+            for (PropertySource source : sources) {
+                result.add(source.load(context));
+            }
+            return result;
+        }
+        List<Future<Properties>> futures = new ArrayList<Future<Properties>>(sources.size());
+        for (final PropertySource source : sources) {
+            futures.add(getPool().submit(new Callable<Properties>() {
+                public Properties call() {
+                    return source.load(context);
+                }
+            }));
+        }
+        for (Future<Properties> future : futures) {
+            try {
+                result.add(future.get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                ExceptionEnvironmentError.createAndThrow(context, ie, SystemStateMessage.create(context, MessageText.create(context, "Loading of properties interrupted"), ProblemState.ERROR));
+                throw (ExceptionEnvironmentFailure) null; // compiler insists
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+                if (cause instanceof Error)            { throw (Error) cause; }
+                ExceptionEnvironmentError.createAndThrow(context, cause, SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed"), ProblemState.ERROR));
+                throw (ExceptionEnvironmentFailure) null; // compiler insists
+            }
+        }
+        return result;
+    }
+}
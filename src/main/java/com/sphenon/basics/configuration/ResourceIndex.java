@@ -0,0 +1,248 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.*;
+import java.io.*;
+import java.net.*;
+
+/**
+   An index of the configuration resources on the class path, i.e. of all
+   resources whose simple name starts with a dot, like ".properties",
+   ".generated.properties-variant" or ".configuration".
+
+   Property and variant resources are probed per package and variant,
+   almost all of these probes miss, and each miss makes the class loader
+   search every jar. With the index, resources which do not exist are
+   not looked up at all, see {@link isKnownAbsent}.
+
+   The index is built once per class loader by reading the central
+   directories of all jars (including manifest Class-Path references) and
+   walking all directories on the class path. It is only used if the whole
+   class loader chain could be scanned, i.e. consists of URLClassLoaders
+   with file URLs and the system class loader; the loaders above the
+   system class loader (the JDK's own) are assumed to provide no
+   configuration resources. The system class loader is only scanned if
+   it is the JDK's built-in one and reads nothing but java.class.path,
+   i.e. neither a module path nor a custom system class loader nor an
+   appended boot class path is in effect, see {@link
+   isSystemClassPathComplete}. Otherwise resources are looked up as usual;
+   an index which is not complete is never taken as proof of absence.
+
+   Resources added to class path directories after the index was built
+   are not seen. The index can be disabled via system property
+   com.sphenon.basics.configuration.ResourceIndex=false.
+ */
+public class ResourceIndex {
+
+    static protected boolean enabled = (System.getProperty("com.sphenon.basics.configuration.ResourceIndex", "true").equals("false") == false);
+
+    static protected final Set<String> UNTRUSTED = Collections.<String>emptySet();
+
+    // weak, so that indices do not keep discarded class loaders (e.g. of undeployed web apps)
+    static protected Map<ClassLoader,Set<String>> indices = new WeakHashMap<ClassLoader,Set<String>>();
+
+    /**
+       Checks whether a resource, as retrieved via java_class.getResource,
+       definitely does not exist.
+
+       @return true if the resource is a configuration resource and not
+               contained in a trusted index, false if it exists or might
+               exist
+     */
+    static public boolean isKnownAbsent (CallContext context, Class java_class, String resource) {
+        if (enabled == false || java_class == null) { return false; }
+        String path = resolve(java_class, resource);
+        int slash = path.lastIndexOf('/');
+        if (path.length() <= slash + 1 || path.charAt(slash + 1) != '.') { return false; }
+        Set<String> index = getIndex(context, java_class.getClassLoader());
+        return (index != UNTRUSTED && index.contains(path) == false);
+    }
+
+    /**
+       Resolves a resource name like Class.getResource does.
+     */
+    static protected String resolve (Class java_class, String resource) {
+        if (resource.startsWith("/")) { return resource.substring(1); }
+        while (java_class.isArray()) { java_class = java_class.getComponentType(); }
+        String name = java_class.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot == -1 ? resource : name.substring(0, dot).replace('.', '/') + "/" + resource);
+    }
+
+    static protected synchronized Set<String> getIndex (CallContext context, ClassLoader loader) {
+        if (loader == null) { return UNTRUSTED; }
+        Set<String> index = indices.get(loader);
+        if (index == null) {
+            index = build(context, loader);
+            indices.put(loader, index);
+        }
+        return index;
+    }
+
+    static protected Set<String> build (CallContext context, ClassLoader loader) {
+        List<File> entries = new ArrayList<File>();
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+        for (ClassLoader current = loader; current != null; current = current.getParent()) {
+            if (current == system) {
+                if (isSystemClassPathComplete(context, system) == false) { return UNTRUSTED; }
+                for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                    if (entry.isEmpty() == false) { entries.add(new File(entry)); }
+                }
+                break;
+            }
+            if ((current instanceof URLClassLoader) == false) { return UNTRUSTED; }
+            for (URL url : ((URLClassLoader) current).getURLs()) {
+                if (url.getProtocol().equals("file") == false) { return UNTRUSTED; }
+                try {
+                    entries.add(new File(url.toURI()));
+                } catch (URISyntaxException use) {
+                    return UNTRUSTED;
+                } catch (IllegalArgumentException iae) {
+                    return UNTRUSTED;
+                }
+            }
+        }
+
+        Set<String> index = new HashSet<String>();
+        Set<File> visited = new HashSet<File>();
+        try {
+            for (File entry : entries) {
+                scan(entry, index, visited);
+            }
+        } catch (IOException ioe) {
+            return UNTRUSTED;
+        }
+        BootstrapNotifier.sendTrace(context, "indexed " + index.size() + " configuration resources in " + visited.size() + " class path entries");
+        return index;
+    }
+
+    static protected final Set<String> BUILTIN_APP_LOADERS = new HashSet<String>(Arrays.asList(
+        "sun.misc.Launcher$AppClassLoader",                     // Java 8
+        "jdk.internal.loader.ClassLoaders$AppClassLoader"       // Java 9 and later
+    ));
+
+    /**
+       Checks whether java.class.path names all locations the system class
+       loader and the loaders above it may read configuration resources
+       from.
+
+       @return false if a module path, a custom system class loader or an
+               appended boot class path is in effect, or if this can not be
+               determined
+     */
+    static protected boolean isSystemClassPathComplete (CallContext context, ClassLoader system) {
+        try {
+            if (BUILTIN_APP_LOADERS.contains(system.getClass().getName()) == false)  { return false; }
+            if (isSet(System.getProperty("java.system.class.loader")))                { return false; }
+            if (isSet(System.getProperty("jdk.module.path")))                         { return false; }
+            if (isSet(System.getProperty("jdk.module.upgrade.path")))                 { return false; }
+            if (isSet(System.getProperty("jdk.boot.class.path.append")))              { return false; }
+            // Java 8 does not tell appended boot class path entries apart
+            for (String argument : java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (argument.startsWith("-Xbootclasspath")) { return false; }
+            }
+            return true;
+        } catch (SecurityException se) {
+            return false;
+        } catch (LinkageError le) {
+            // no java.management module
+            return false;
+        }
+    }
+
+    static protected boolean isSet (String value) {
+        return (value != null && value.isEmpty() == false);
+    }
+
+    static protected void scan (File entry, Set<String> index, Set<File> visited) throws IOException {
+        if (visited.add(entry) == false) { return; }
+        if (entry.isDirectory()) {
+            scanDirectory(entry, "", index, new HashSet<String>());
+        } else if (entry.isFile()) {
+            JarFile jar = new JarFile(entry);
+            try {
+                Enumeration<JarEntry> jar_entries = jar.entries();
+                while (jar_entries.hasMoreElements()) {
+                    JarEntry jar_entry = jar_entries.nextElement();
+                    if (jar_entry.isDirectory() == false) {
+                        add(jar_entry.getName(), index);
+                    }
+                }
+                Manifest manifest = jar.getManifest();
+                String class_path = (manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH));
+                if (class_path != null) {
+                    for (String reference : class_path.trim().split("\\s+")) {
+                        if (reference.isEmpty()) { continue; }
+                        try {
+                            URL url = new URL(entry.getParentFile().toURI().toURL(), reference);
+                            if (url.getProtocol().equals("file")) {
+                                scan(new File(url.toURI()), index, visited);
+                            }
+                        } catch (URISyntaxException use) {
+                            throw new IOException("invalid Class-Path entry '" + reference + "' in '" + entry + "'");
+                        }
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+    }
+
+    /**
+       Symbolic links are followed, like the class loader does. A link
+       pointing to one of it's ancestors makes infinitely many paths
+       resolvable, so the scan is aborted and the class path is not
+       indexed in that case.
+
+       @param ancestors The canonical paths of the directories currently
+                        being walked
+     */
+    static protected void scanDirectory (File directory, String prefix, Set<String> index, Set<String> ancestors) throws IOException {
+        String canonical = directory.getCanonicalPath();
+        if (ancestors.add(canonical) == false) {
+            throw new IOException("cyclic directory link '" + directory + "'");
+        }
+        File[] files = directory.listFiles();
+        if (files == null) { ancestors.remove(canonical); return; }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                if (name.startsWith(".") == false) {
+                    scanDirectory(file, prefix + name + "/", index, ancestors);
+                }
+            } else {
+                add(prefix + name, index);
+            }
+        }
+        ancestors.remove(canonical);
+    }
+
+    static protected void add (String path, Set<String> index) {
+        int slash = path.lastIndexOf('/');
+        if (path.length() > slash + 1 && path.charAt(slash + 1) == '.') {
+            if (path.startsWith("META-INF/versions/")) {
+                int version_end = path.indexOf('/', 18);
+                if (version_end != -1) { index.add(path.substring(version_end + 1)); }
+            }
+            index.add(path);
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.sphenon.basics.notification.BootstrapNotifier;
 
 import java.util.*;
 import java.util.regex.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 import java.net.*;
 import java.lang.reflect.*;
@@ -40,6 +41,14 @@ public class RootConfiguration {
 
     static protected boolean trace_property_origins = false;
 
+    /**
+       Lock free read path: an immutable, flattened copy of the two tables
+       above. It is rebuilt and republished by every modification of the
+       tables, see {@link publishSnapshot}.
+     */
+    static protected volatile PropertySnapshot snapshot = null;
+    static protected long snapshot_version = 0;
+
     // -------------------------------------------------------------------------------------------------------
     // -------------------------------------------------------------------------------------------------------
     // Initialisation ----------------------------------------------------------------------------------------
@@ -56,6 +65,8 @@ public class RootConfiguration {
         if (config_folders_initialised == false) {
             config_folders_initialised = true;
 
+            EnvironmentFacts.start();
+
             config_folders  = new Vector<ConfigFolder>();
 
             config_folders.add(new ConfigFolder("/etc/sphenon", true));
@@ -74,13 +85,26 @@ public class RootConfiguration {
 
     static protected boolean initialised = false;
 
-    static public synchronized void initialise (CallContext context) {
+    static public void initialise (CallContext context) {
+        if (initialiseTables(context)) {
+            preEvaluate(context);
+        }
+    }
+
+    /**
+       Performs the actual initialisation, while holding the class lock.
+
+       @return true if this call initialised the configuration and dynamic
+               entries are to be pre-evaluated
+     */
+    static protected synchronized boolean initialiseTables (CallContext context) {
         if (initialised == false) {
             initialised = true;
             
             initialiseConfigFolders();
             
             properties = new java.util.Properties(default_properties);
+            publishSnapshot(context);
             
             String isp = System.getProperty("com.sphenon.basics.configuration.IncludeSystemProperties");
             include_system_properties = (isp != null && isp.equals("true") ? true : false);
@@ -97,10 +121,169 @@ public class RootConfiguration {
                 }
             }
             
+            DynamicPropertyDependencies.setRecompute(Configuration.get(context, "com.sphenon.basics.configuration", "RecomputeInvalidated", false));
+
+            String result_store = Configuration.get(context, "com.sphenon.basics.configuration", "ResultStore", (String) null);
+            if (result_store != null) {
+                DynamicPropertyResultStore.open(context, result_store);
+            }
+
             CoreInitialiser.initialisePackages(context);
+
+            ConfigurationImage.writeIfStale(context);
+
+            if (Configuration.get(context, "com.sphenon.basics.configuration", "ReloadOnChange", false)) {
+                Vector<String> folders = new Vector<String>();
+                for (ConfigFolder config_folder : config_folders) {
+                    if (config_folder.sphenon_specific) {
+                        folders.add(config_folder.name);
+                    }
+                }
+                ConfigurationWatcher.start(context, folders,
+                                           Configuration.get(context, "com.sphenon.basics.configuration", "ReloadPollInterval", 2000L),
+                                           Configuration.get(context, "com.sphenon.basics.configuration", "ReloadUsePolling", false));
+            }
+
+            return Configuration.get(context, "com.sphenon.basics.configuration", "PreEvaluate", false);
         }
+        return false;
     }
-    
+
+    /**
+       Pre-evaluates dynamic entries, see {@link DynamicPropertyPreEvaluator}.
+
+       The evaluations write their results back under the class lock, so
+       this must not run while the lock is held. If the current thread
+       still holds it, since initialise was invoked from within a
+       synchronized method, the pre-evaluation is handed over to a
+       background thread, which proceeds as soon as the lock is released.
+     */
+    static protected void preEvaluate (CallContext context) {
+        if (Thread.holdsLock(RootConfiguration.class)) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    preEvaluate(RootContext.getFallbackCallContext());
+                }
+            }, "DynamicPropertyPreEvaluator");
+            thread.setDaemon(true);
+            thread.start();
+            return;
+        }
+        DynamicPropertyPreEvaluator.run(context,
+                                        Configuration.get(context, "com.sphenon.basics.configuration", "PreEvaluateThreads", Math.min(4, Runtime.getRuntime().availableProcessors())),
+                                        Configuration.get(context, "com.sphenon.basics.configuration", "PreEvaluateTimeout", 60000L));
+        DynamicPropertyResultStore.save(context);
+    }
+
+    /**
+       Rereads all configuration folder files which contributed to the user
+       properties and have been modified, created or deleted since they were
+       read last. For each key contained in such a file, before or after the
+       modification, the effective value is recomputed from all sources in
+       their original load order, followed by the property overrides from the
+       command line. Only entries whose value actually differs are modified,
+       and the snapshot is republished once. Dynamic entries which have been
+       replaced by their cached result are compared by their dynamic value,
+       so that the result is kept if the entry itself is unchanged.
+
+       Default properties stem from class resources, which do not change at
+       runtime, and are not affected. Entries set at runtime are kept, unless
+       a modified file contains the same key.
+
+       Readers are not blocked while the files are read. Concurrent reloads,
+       e.g. by the ConfigurationWatcher and an explicit invocation, are
+       serialised, since they share the source objects.
+
+       Not covered are variant files (".configuration" etc.); the variant
+       sequence is determined once at startup and a modification takes
+       effect only after a restart. Typically invoked by the
+       ConfigurationWatcher, which watches only the sphenon specific
+       folders (e.g. ~/.sphenon), so that changes of ".sphenon-*" files in
+       the other folders (home and working directory) are picked up only
+       by the next reload triggered otherwise.
+
+       @return The keys whose values changed
+     */
+    static public Set<String> reload (CallContext context) {
+        synchronized (reload_lock) {
+            return reloadSources(context);
+        }
+    }
+
+    static protected final Object reload_lock = new Object();
+
+    static protected Set<String> reloadSources (CallContext context) {
+        Set<String> changed = new HashSet<String>();
+        if (properties == null) { return changed; }
+
+        FolderListing.invalidateAll();
+
+        List<PropertySource> sources;
+        synchronized (user_property_sources) {
+            sources = new ArrayList<PropertySource>(user_property_sources);
+        }
+
+        Set<String> affected = new HashSet<String>();
+        for (PropertySource source : sources) {
+            if (source.isModified(context)) {
+                BootstrapNotifier.sendCheckpoint(context, "Reloading property resource " + source.getLocation(context));
+                Properties previous = source.getEntries(context);
+                if (previous != null) { affected.addAll(previous.stringPropertyNames()); }
+                Properties current = source.load(context);
+                if (current != null) { affected.addAll(current.stringPropertyNames()); }
+            }
+        }
+        if (affected.isEmpty()) { return changed; }
+
+        Map<String,String> overrides = new HashMap<String,String>();
+        if (clarg_properties != null) {
+            for (String clarg_property : clarg_properties) {
+                String[] kv = clarg_property.split(":",2);
+                overrides.put(kv[0], kv[1]);
+            }
+        }
+
+        synchronized (RootConfiguration.class) {
+            for (String key : affected) {
+                String value = null;
+                PropertySource origin = null;
+                for (PropertySource source : sources) {
+                    Properties entries = source.getEntries(context);
+                    String entry = (entries == null ? null : entries.getProperty(key));
+                    if (entry != null) {
+                        value  = entry;
+                        origin = source;
+                    }
+                }
+                if (overrides.containsKey(key)) {
+                    value = overrides.get(key);
+                }
+                // an entry replaced by it's evaluated result is compared by it's dynamic value
+                String current = getCachedRaw(key, properties.getProperty(key));
+                if (value == null ? current != null : value.equals(current) == false) {
+                    if (value == null) {
+                        properties.remove(key);
+                    } else {
+                        properties.setProperty(key, value);
+                    }
+                    cached_raw.remove(key);
+                    changed.add(key);
+                }
+                if (trace_property_origins) {
+                    if (origin == null) {
+                        properties.remove(key + "@Origin");
+                    } else {
+                        properties.setProperty(key + "@Origin", origin.getId(context));
+                    }
+                }
+            }
+            publishSnapshot(context, changed);
+        }
+
+        BootstrapNotifier.sendCheckpoint(context, "Reloaded configuration, " + changed.size() + " entries changed");
+        return changed;
+    }
+
     static protected Pattern uri_escape;
 
     static public String decode(CallContext context, String string) {
@@ -196,48 +379,228 @@ public class RootConfiguration {
     // -------------------------------------------------------------------------------------------------------
     // Initialise and update property tables -----------------------------------------------------------------
 
-    static protected long created = 0;
-    static protected File file = null;
     static protected boolean tried = false;
 
     /**
-       Ensures the loading and optionally updating of the root configuration
-       and returns the respective property instance.
+       Ensures the loading of the root configuration and returns the
+       respective property instance. Updates of the configuration files are
+       not checked here, but by the ConfigurationWatcher, if enabled.
      */
     static protected Properties getProperties (CallContext context) {
-        if ((properties == null && tried == false) || (properties != null && file != null && created < file.lastModified())) {
+        if (properties == null && tried == false) {
             tried = true;
-            initialised = false;
             initialise (context);
         }
         return properties;
     }
 
+    /**
+       Ensures the loading of the root configuration like {@link
+       getProperties} and returns the currently published snapshot of the
+       property tables.
+     */
+    static protected PropertySnapshot getSnapshot (CallContext context) {
+        PropertySnapshot current = snapshot;
+        if (current == null) {
+            getProperties(context);
+            current = snapshot;
+        }
+        return current;
+    }
+
+    /**
+       Rebuilds the snapshot from the current property tables and publishes
+       it. Must be invoked after each modification of either table. If the
+       modified keys are known, only the affected segments of the snapshot
+       are rebuilt, see {@link PropertySnapshot#derive}.
+       Listeners are notified about all entries whose effective value
+       changed, see {@link ConfigurationNotifier}. Cached results of dynamic
+       entries depending on changed entries are invalidated before, see
+       {@link DynamicPropertyDependencies}.
+     */
+    static protected void publishSnapshot (CallContext context) {
+        publishSnapshot(context, null);
+    }
+
+    /**
+       Like above, if the modified keys are known.
+
+       @param changed_keys The keys which may have changed, or null if
+                           unknown
+     */
+    static protected synchronized void publishSnapshot (CallContext context, Collection<String> changed_keys) {
+        if (properties == null) { return; }
+        PropertySnapshot previous = snapshot;
+        if (DynamicPropertyDependencies.hasDependents() && previous != null) {
+            Collection<String> candidates = (changed_keys != null ? changed_keys : DynamicPropertyDependencies.getChangedDependencies(previous, properties));
+            if (candidates.isEmpty() == false) {
+                Set<String> reset = DynamicPropertyDependencies.invalidate(context, properties, candidates);
+                if (changed_keys != null && reset.isEmpty() == false) {
+                    Set<String> all = new HashSet<String>(changed_keys);
+                    all.addAll(reset);
+                    changed_keys = all;
+                }
+            }
+        }
+        snapshot = (previous == null ? new PropertySnapshot(++snapshot_version, properties) : previous.derive(++snapshot_version, properties, changed_keys));
+        if (previous != null && ConfigurationNotifier.isActive()) {
+            ConfigurationNotifier.notify(context, previous, snapshot, changed_keys);
+        }
+    }
+
+    /**
+       Publishes entries whose effective value did not change, i.e. dynamic
+       entries replaced by their evaluated value. Neither are dependent
+       entries invalidated nor are listeners notified.
+
+       @param modified_keys The keys which have been replaced
+     */
+    static protected synchronized void publishCachedEntries (CallContext context, Collection<String> modified_keys) {
+        if (properties == null) { return; }
+        PropertySnapshot previous = snapshot;
+        snapshot = (previous == null ? new PropertySnapshot(++snapshot_version, properties) : previous.derive(++snapshot_version, properties, modified_keys));
+    }
+
     // -------------------------------------------------------------------------------------------------------
     // -------------------------------------------------------------------------------------------------------
     // Actual access to root properties ----------------------------------------------------------------------
 
     static public String getPropertyEntry (CallContext context, String full_key) {
-        Properties properties = null;
+        if (DynamicPropertyDependencies.isTracking()) { DynamicPropertyDependencies.record(full_key); }
+        PropertySnapshot snapshot = null;
         String property = null;
         return
             (
-                (properties = getProperties(context)) == null ?
+                (snapshot = getSnapshot(context)) == null ?
                     null
                   : (
-                          (property = properties.getProperty(full_key)) == null
+                          (property = snapshot.get(full_key)) == null
+                       && (property = getLayeredEntry(context, full_key)) == null
                        && (    include_system_properties == false
-                            || (property = getSystemProperty(context, full_key)) == null
+                            || snapshot.isKnownMissing(full_key)
+                            || (property = getSystemProperty(context, snapshot, full_key)) == null
                           ) ?
                           null
-                        : (  Configuration.javascript_evaluator != null && property.length() > 2 && property.charAt(0) == '\u0000' ?
-                                Configuration.evaluateAndCacheProperty(context, properties, full_key, property)
+                        : (  Configuration.isDynamic(property) ?
+                                Configuration.evaluateAndCacheProperty(context, null, full_key, property)
                               : property
                           )
                     )
             );
     }
 
+    /**
+       Retrieves a root entry together with it's cached typed
+       interpretations, see {@link TypedPropertyValue}.
+
+       @param full_key The fully qualified property key
+       @return The typed value, TypedPropertyValue.MISSING if there is
+               definitely no such entry, or null if the entry has to be
+               retrieved via getPropertyEntry, since it is dynamic or might
+               be provided by the system properties
+     */
+    static public TypedPropertyValue getTypedPropertyEntry (CallContext context, String full_key) {
+        if (DynamicPropertyDependencies.isTracking()) { DynamicPropertyDependencies.record(full_key); }
+        PropertySnapshot snapshot = getSnapshot(context);
+        if (snapshot == null) { return TypedPropertyValue.MISSING; }
+        TypedPropertyValue typed = snapshot.getTypedValue(full_key, PropertySnapshot.hash(full_key));
+        if (typed == null) {
+            return ((include_system_properties && snapshot.isKnownMissing(full_key) == false) || offheap_layers.length != 0) ? null : TypedPropertyValue.MISSING;
+        }
+        String value = typed.getValue();
+        return (value.length() > 2 && value.charAt(0) == '\u0000') ? null : typed;
+    }
+
+    /**
+       Searches for an entry composed of the given key and the given prefix
+       or one of it's "parent" prefixes, see Configuration.getProperty. All
+       levels are resolved in a single descent of the key index of the
+       current snapshot. System properties are not considered.
+
+       @param prefix First part of the entry, optionally shortened, may be
+                     null, but not empty
+       @param key    Last part of the entry, must not be null
+       @return The value of the property entry found, or null if none was found
+     */
+    static public String getPropertyEntryRecursive (CallContext context, String prefix, String key) {
+        if (DynamicPropertyDependencies.isTracking()) { DynamicPropertyDependencies.recordRecursive(prefix, key); }
+        PropertySnapshot snapshot = getSnapshot(context);
+        if (snapshot == null) { return null; }
+
+        PropertyKeyIndex index = snapshot.getIndex();
+        int max_depth = Integer.MAX_VALUE;
+        String full_key;
+        while ((full_key = index.find(prefix, key, max_depth)) != null) {
+            String value = getPropertyEntry(context, full_key);
+            if (value != null) { return value; }
+            // a dynamic entry evaluated to null, continue with the parents
+            max_depth = PropertyKeyIndex.countSegments(full_key) - PropertyKeyIndex.countSegments(key) - 1;
+            if (max_depth < 0) { break; }
+        }
+        return null;
+    }
+
+    /**
+       Retrieves the keys of all root entries which are equal to or located
+       below the given prefix.
+
+       @param prefix A dot separated prefix, null denotes all keys
+       @return The fully qualified keys found
+     */
+    static public List<String> getPropertyKeys (CallContext context, String prefix) {
+        PropertySnapshot snapshot = getSnapshot(context);
+        List<String> keys = (snapshot == null ? new ArrayList<String>() : snapshot.getIndex().getKeys(prefix));
+        OffHeapPropertyStore[] layers = offheap_layers;
+        if (layers.length != 0) {
+            Set<String> all = new LinkedHashSet<String>(keys);
+            for (OffHeapPropertyStore layer : layers) {
+                layer.addKeys(prefix, all);
+            }
+            keys = new ArrayList<String>(all);
+        }
+        return keys;
+    }
+
+    /**
+       Off-heap default property tables, the one added last first. They are
+       consulted after the snapshot and before the system properties, see
+       {@link OffHeapPropertyStore}.
+     */
+    static protected volatile OffHeapPropertyStore[] offheap_layers = new OffHeapPropertyStore[0];
+
+    static protected boolean hasLayers () {
+        return offheap_layers.length != 0;
+    }
+
+    static protected String getLayeredEntry (CallContext context, String full_key) {
+        OffHeapPropertyStore[] layers = offheap_layers;
+        for (OffHeapPropertyStore layer : layers) {
+            String value = layer.get(full_key);
+            if (value != null) { return value; }
+        }
+        return null;
+    }
+
+    /**
+       Adds an off-heap table on top of the others. Entries of the default
+       property table which it overrides are removed from the latter, so
+       that the precedence is the same as if the entries had been merged
+       into the default table. Must be invoked with the class lock held.
+     */
+    static protected void addLayer (CallContext context, OffHeapPropertyStore layer, Set<String> keys) {
+        List<String> layer_keys = new ArrayList<String>(layer.size());
+        layer.addKeys(null, layer_keys);
+        for (String key : layer_keys) {
+            default_properties.remove(key);
+        }
+        keys.addAll(layer_keys);
+        OffHeapPropertyStore[] layers = new OffHeapPropertyStore[offheap_layers.length + 1];
+        layers[0] = layer;
+        System.arraycopy(offheap_layers, 0, layers, 1, offheap_layers.length);
+        offheap_layers = layers;
+        BootstrapNotifier.sendCheckpoint(context,  "Mapped off-heap property table " + layer.getId() + " (" + layer.size() + " entries)");
+    }
+
     static public void appendPropertyEntryVariants (CallContext context, String key, StringBuilder value) {
         if (getVariants(context) != null) {
             for (String variant : getVariants(context)) {
@@ -252,14 +615,44 @@ public class RootConfiguration {
 
     static protected boolean include_system_properties;
 
-    static protected String getSystemProperty (CallContext context, String full_key) {
+    /**
+       Looks up a system property and copies it into the user properties if
+       it exists, otherwise the key is recorded as missing in the given
+       snapshot. Note that therefore system properties set after a failed
+       lookup are only seen after the next modification of the root
+       configuration.
+     */
+    static protected String getSystemProperty (CallContext context, PropertySnapshot snapshot, String full_key) {
         String value = System.getProperty(full_key);
         if (value != null) {
             setPropertyEntry(context, full_key, value);
+        } else {
+            snapshot.addMissing(full_key);
         }
         return value;
     }
 
+    /**
+       Retrieves an entry like getPropertyEntry, but without evaluating
+       dynamic entries and without modifying the tables. If the entry holds
+       the cached result of a dynamic entry, the dynamic value is returned.
+
+       @param full_key Fully qualified property name
+       @return The unevaluated value, or null if there is none
+     */
+    static protected String getRawPropertyEntry (CallContext context, String full_key) {
+        PropertySnapshot snapshot = getSnapshot(context);
+        if (snapshot == null) { return null; }
+        String property = snapshot.get(full_key);
+        if (property != null) {
+            return getCachedRaw(full_key, property);
+        }
+        if ((property = getLayeredEntry(context, full_key)) != null) {
+            return property;
+        }
+        return (include_system_properties ? System.getProperty(full_key) : null);
+    }
+
     /**
        Sets a property specified by it's fully qualified name to the given
        value.
@@ -268,7 +661,66 @@ public class RootConfiguration {
        @param value The value to set
     */
     static public void setPropertyEntry(CallContext call_context, String name, String value) {
-        properties.setProperty(name, value);
+        synchronized (RootConfiguration.class) {
+            properties.setProperty(name, value);
+            cached_raw.remove(name);
+            publishSnapshot(call_context, Collections.singleton(name));
+        }
+    }
+
+    /**
+       Replaces a dynamic entry by it's evaluated value, unless the entry
+       has been modified since it has been retrieved. Since the effective
+       value does not change, listeners are not notified.
+
+       @param expected The dynamic entry which has been evaluated
+     */
+    static protected void cachePropertyEntry(CallContext call_context, String name, String expected, String value) {
+        Map<String,String[]> entries = new HashMap<String,String[]>();
+        entries.put(name, new String[] { expected, value });
+        cachePropertyEntries(call_context, entries);
+    }
+
+    /**
+       Like above, for several entries, which are published at once.
+
+       @param entries Maps names to pairs of expected and evaluated value
+     */
+    static protected void cachePropertyEntries(CallContext call_context, Map<String,String[]> entries) {
+        synchronized (RootConfiguration.class) {
+            List<String> modified = new ArrayList<String>();
+            for (Map.Entry<String,String[]> entry : entries.entrySet()) {
+                String name     = entry.getKey();
+                String expected = entry.getValue()[0];
+                String current  = properties.getProperty(name);
+                if (current == null ? expected.equals(System.getProperty(name)) : expected.equals(current)) {
+                    properties.setProperty(name, entry.getValue()[1]);
+                    cached_raw.put(name, new String[] { expected, entry.getValue()[1] });
+                    modified.add(name);
+                }
+            }
+            if (modified.isEmpty() == false) {
+                publishCachedEntries(call_context, modified);
+            }
+        }
+    }
+
+    /**
+       The dynamic values of entries which have been replaced by their
+       evaluated result, see cachePropertyEntries, as pairs of dynamic and
+       evaluated value. Modified while RootConfiguration is locked.
+     */
+    static protected Map<String,String[]> cached_raw = new ConcurrentHashMap<String,String[]>();
+
+    /**
+       @param name  Fully qualified property name
+       @param value The current value of the entry in the root table
+       @return The dynamic value, if the given value is the cached result of
+               evaluating it, otherwise the given value
+     */
+    static protected String getCachedRaw(String name, String value) {
+        String[] raw = (value == null ? null : cached_raw.get(name));
+        return (raw != null && raw[1].equals(value) ? raw[0] : value);
     }
 
     // -------------------------------------------------------------------------------------------------------
@@ -517,14 +969,12 @@ public class RootConfiguration {
     }
 
     static protected void prepareBasicParameters(CallContext context) {
-        host = "?";
-        try { host = InetAddress.getLocalHost().getHostName(); } catch (UnknownHostException uhe) {};
+        host        = null;   // resolved on demand, see getHost
         user        = (String) System.getProperty("user.name", "?");
         os          = (String) System.getProperty("os.name", "?");
         osversion   = (String) System.getProperty("os.version", "?");
         javaversion = (String) System.getProperty("java.specification.version", "?");
         
-        BootstrapNotifier.sendTrace(context,  "host '" + host + "'");
         BootstrapNotifier.sendTrace(context,  "user '" + user + "'");
         BootstrapNotifier.sendTrace(context,  "os '" + os + "'");
         BootstrapNotifier.sendTrace(context,  "osversion '" + osversion + "'");
@@ -547,6 +997,20 @@ public class RootConfiguration {
         BootstrapNotifier.sendTrace(context,  "explicit variants '" + explicit_configuration_variant + "'");
     }
 
+    /**
+       Retrieves the host name, waiting for it's resolution if necessary,
+       see {@link EnvironmentFacts}. Variant rules which do not refer to the
+       host therefore do not depend on the resolver.
+     */
+    static protected String getHost(CallContext context) {
+        VariantResolution.usesHost();
+        if (host == null) {
+            host = EnvironmentFacts.getHostName(context);
+            BootstrapNotifier.sendTrace(context,  "host '" + host + "'");
+        }
+        return host;
+    }
+
     static protected void addVariants(CallContext context, List<String> variants, Set<String> duplicates, String variant_string) {
         if (variant_string != null && variant_string.isEmpty() == false) {
             for (String variant : variant_string.split(":")) {
@@ -559,7 +1023,8 @@ public class RootConfiguration {
     }
 
     /**
-       Parses a variant (configuration) file.
+       Parses a variant (configuration) file, i.e. compiles and evaluates
+       it, see {@link VariantRules}.
 
        @param reader     Where the data is read from
        @param variants   Partially calculated variant sequence, which is augmented
@@ -568,171 +1033,7 @@ public class RootConfiguration {
                          debugging and error reporting purposes
     */
     static protected void parseVariantFile(CallContext context, Reader reader, List<String> variants, Set<String> duplicates, String sourcename, Queue<String> cvariants, Set<String> cduplicates) {
-        BootstrapNotifier.sendCheckpoint(context,  "parsing variant file '" + sourcename + "'");
-
-        BufferedReader br = new BufferedReader(reader);
-        String line;
-        int linenbr = 0;
-
-        try {
-            lines: while ((line = br.readLine()) != null) {
-                BootstrapNotifier.sendTrace(context,  "got line '" + line + "'");
-
-                linenbr++;
-                if (line.matches("^\\s*$")) { continue lines; }
-                if (line.matches("^\\s*#.*")) { continue lines; }
-                String[] keyval = line.split("=",-1);
-                if (keyval == null || keyval.length != 2) {
-                    ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), expected exatly one '=' separator: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                    throw (ExceptionConfigurationError) null; // compiler insists
-                }
-                if (keyval[0].startsWith("@hostclass:")) {
-                    String host_class = keyval[0].substring(11);
-                    if (host_class.isEmpty()) {
-                        ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), host class is empty: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                        throw (ExceptionConfigurationError) null; // compiler insists
-                    }
-                    for (String host_entry : keyval[1].split(",")) {
-                        if (host_entry != null && host_entry.isEmpty() == false) {
-                            if (host_entry.equals(host)) {
-                                if (hostclasses == null) {
-                                    hostclasses = new Vector<String>();
-                                }
-                                hostclasses.add(host_class);
-                                BootstrapNotifier.sendTrace(context,  "host class '" + host_class + "'");
-                            }
-                        }
-                    }
-                    continue lines;
-                }
-                if (keyval[0].startsWith("@userclass:")) {
-                    String user_class = keyval[0].substring(11);
-                    if (user_class.isEmpty()) {
-                        ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), user class is empty: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                        throw (ExceptionConfigurationError) null; // compiler insists
-                    }
-                    for (String user_entry : keyval[1].split(",")) {
-                        if (user_entry != null && user_entry.isEmpty() == false) {
-                            if (user_entry.equals(user)) {
-                                if (userclasses == null) {
-                                    userclasses = new Vector<String>();
-                                }
-                                userclasses.add(user_class);
-                                BootstrapNotifier.sendTrace(context,  "user class '" + user_class + "'");
-                            }
-                        }
-                    }
-                    continue lines;
-                }
-                if (keyval[0].equals("@include.immediately")) {
-                    for (String include : keyval[1].split(",")) {
-                        if (include != null && include.isEmpty() == false) {
-                            BootstrapNotifier.sendTrace(context,  "including configuration '" + include + "' immediately");
-                            tryConfiguration(context, variants, duplicates, include, cvariants, cduplicates);
-                        }
-                    }
-                    continue lines;
-                }
-                if (keyval[0].equals("@include.afterwards")) {
-                    for (String include : keyval[1].split(",")) {
-                        if (include != null && include.isEmpty() == false) {
-                            BootstrapNotifier.sendTrace(context,  "including configuration '" + include + "' afterwards");
-                            if (cduplicates.contains(include) == false) {
-                                cvariants.add(include);
-                                cduplicates.add(include);
-                            }
-                        }
-                    }
-                    continue lines;
-                }
-                String[] keys = keyval[0].split(",",-1);
-                if (keys == null) {
-                    ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), expected at least one key left of '=' separator: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                    throw (ExceptionConfigurationError) null; // compiler insists
-                }
-                for (int i=0; i<keys.length; i++) {
-                    if (keys[i] != null && keys[i].length() != 0) {
-                        String[] rule = keys[i].split(":",-1);
-                        if (rule == null || (rule.length != 2 && rule.length != 3)) {
-                            ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), a key rule entry must contain either one or two ':' separators: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                            throw (ExceptionConfigurationError) null; // compiler insists
-                        }
-                        if (rule[0] == null || rule[0].length() == 0) {
-                            ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, "Syntax error in configuration file '%(source)', line %(linenbr), a key rule key must not be empty: '%(line)'", "source", sourcename, "linenbr", t.s(linenbr), "line", line), ProblemState.ERROR));
-                            throw (ExceptionConfigurationError) null; // compiler insists
-                        }
-                        String inc = rule[1];
-                        String exc = rule.length == 2 ? null : rule[2];
-                        if (rule[0].equals("host")          && (    (inc != null && host.matches(inc) == false)
-                                                                 || (exc != null && host.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("hostclass")     && (    (inc != null && matches(hostclasses, inc) == false)
-                                                                 || (exc != null && matches(hostclasses, exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("user")          && (    (inc != null && user.matches(inc) == false)
-                                                                 || (exc != null && user.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("userclass")     && (    (inc != null && matches(userclasses, inc) == false)
-                                                                 || (exc != null && matches(userclasses, exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("os")            && (    (inc != null && os.matches(inc) == false)
-                                                                 || (exc != null && os.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("osversion")     && (    (inc != null && osversion.matches(inc) == false)
-                                                                 || (exc != null && osversion.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("javaversion")   && (    (inc != null && javaversion.matches(inc) == false)
-                                                                 || (exc != null && javaversion.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("configuration") && (    (inc != null && configuration_name.matches(inc) == false)
-                                                                 || (exc != null && configuration_name.matches(exc) == true)
-                                                               )                                                                  ) { continue lines; }
-                        if (rule[0].equals("ui")) {
-                            boolean got_one_inc = false;
-                            boolean got_one_exc = false;
-                            for (String ui_name : configuration_ui_name.split(":")) {
-                                got_one_inc = got_one_inc || (inc == null || ui_name.matches(inc));
-                                got_one_exc = (exc != null && ui_name.matches(exc));
-                                if (got_one_exc) { break; }
-                            }
-                            if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
-                        }
-                        if (rule[0].equals("db")) {
-                            boolean got_one_inc = false;
-                            boolean got_one_exc = false;
-                            for (String db_name : configuration_db_name.split(":")) {
-                                got_one_inc = got_one_inc || (inc == null || db_name.matches(inc));
-                                got_one_exc = (exc != null && db_name.matches(exc));
-                                if (got_one_exc) { break; }
-                            }
-                            if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
-                        }
-                        if (rule[0].equals("variants")) {
-                            boolean got_one_inc = false;
-                            boolean got_one_exc = false;
-                            if (explicit_configuration_variant.length() == 0) {
-                                got_one_inc = (inc == null || explicit_configuration_variant.matches(inc));
-                                got_one_exc = (exc != null && explicit_configuration_variant.matches(exc));
-                            } else {
-                                for (String variant : variants) {
-                                    got_one_inc = got_one_inc || (inc == null || variant.matches(inc));
-                                    got_one_exc = (exc != null && variant.matches(exc));
-                                    if (got_one_exc) { break; }
-                                }
-                            }
-                            if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
-                        }
-                    }
-                }
-                BootstrapNotifier.sendTrace(context,  "match, appending '" + keyval[1] + "'");
-
-                addVariants(context, variants, duplicates, keyval[1]);
-            }
-            BootstrapNotifier.sendTrace(context,  "result '" + join(context, variants) + "'");
-        } catch (IOException ioe) {
-            ExceptionConfigurationError.createAndThrow(context, ioe, SystemStateMessage.create(context, MessageText.create(context, "Configuration file '%(source)' unreadable", "source", sourcename), ProblemState.ERROR));
-            throw (ExceptionConfigurationError) null; // compiler insists
-        }
+        VariantRules.compile(context, reader, sourcename, null).evaluate(context, variants, duplicates, cvariants, cduplicates);
     }
 
     /**
@@ -751,12 +1052,20 @@ public class RootConfiguration {
             BootstrapNotifier.sendTrace(context,  "checking configuration '" + path + "'");
             
             File file = new File(path);
-            if (file.exists()) {
-                FileInputStream fis = new FileInputStream(file);
-                InputStreamReader isr = new InputStreamReader(fis, "UTF-8");
-                parseVariantFile(context, isr, variants, duplicates, path, cvariants, cduplicates);
-                isr.close();
-                fis.close();
+            boolean exists = (FolderListing.isKnownAbsent(file) == false && file.exists());
+            VariantResolution.probe("F" + path, exists ? ConfigurationFiles.stamp(file, path) : VariantResolution.ABSENT);
+            if (exists) {
+                String stamp = ConfigurationFiles.stamp(file, path);
+                VariantRules rules = VariantRules.get(context, path, stamp);
+                if (rules == null) {
+                    FileInputStream fis = new FileInputStream(file);
+                    InputStreamReader isr = new InputStreamReader(fis, "UTF-8");
+                    rules = VariantRules.compile(context, isr, path, stamp);
+                    isr.close();
+                    fis.close();
+                    VariantRules.put(context, rules);
+                }
+                rules.evaluate(context, variants, duplicates, cvariants, cduplicates);
             }
         } catch (java.io.IOException ioe) {
             ExceptionConfigurationError.createAndThrow(context, ioe, SystemStateMessage.create(context, MessageText.create(context, "Error while reading from '%(file)'", "file", path), ProblemState.ERROR));
@@ -778,13 +1087,24 @@ public class RootConfiguration {
         try {
             BootstrapNotifier.sendTrace(context,  "checking configuration '" + id + "'");
 
-            InputStream input = java_class.getResourceAsStream(resource_name);
-            if (input != null) {
+            URL url = (ResourceIndex.isKnownAbsent(context, java_class, resource_name) ? null : java_class.getResource(resource_name));
+            if (url == null) {
+                VariantResolution.probe("R" + java_class.getName() + "|" + resource_name, VariantResolution.ABSENT);
+                return;
+            }
+            String stamp = ConfigurationFiles.stamp(url);
+            VariantResolution.probe("R" + java_class.getName() + "|" + resource_name, stamp);
+            VariantRules rules = VariantRules.get(context, id, stamp);
+            if (rules == null) {
+                InputStream input = java_class.getResourceAsStream(resource_name);
+                if (input == null) { return; }
                 InputStreamReader isr = new InputStreamReader(input, "UTF-8");
-                parseVariantFile(context, isr, variants, duplicates, id, cvariants, cduplicates);
+                rules = VariantRules.compile(context, isr, id, stamp);
                 isr.close();
                 input.close();
+                VariantRules.put(context, rules);
             }
+            rules.evaluate(context, variants, duplicates, cvariants, cduplicates);
         } catch (java.io.IOException ioe) {
             ExceptionConfigurationError.createAndThrow(context, ioe, SystemStateMessage.create(context, MessageText.create(context, "Error while reading from '%(file)'", "file", id), ProblemState.ERROR));
             throw (ExceptionConfigurationError) null; // compiler insists
@@ -859,20 +1179,41 @@ public class RootConfiguration {
             prepareBasicParameters(context);
 
             BootstrapNotifier.sendTrace(context,  "explicit configuration variants '" +  (explicit_configuration_variant == null ? "" : explicit_configuration_variant)  + "'");
-            addVariants(context, variants, duplicates, explicit_configuration_variant);
 
-            Queue<String> cvariants = new LinkedList<String>();
-            Set<String> cduplicates = new HashSet<String>();
-            cvariants.add("");
-            cduplicates.add("");
+            String fingerprint = null;
+            List<String> stored = null;
+            if (VariantResolution.isEnabled()) {
+                fingerprint = VariantResolution.fingerprint(context);
+                stored = VariantResolution.lookup(context, fingerprint);
+            }
+
+            if (stored != null) {
+                variants = stored;
+            } else {
+                if (fingerprint != null) {
+                    VariantResolution.startRecording(context);
+                }
+
+                addVariants(context, variants, duplicates, explicit_configuration_variant);
+
+                Queue<String> cvariants = new LinkedList<String>();
+                Set<String> cduplicates = new HashSet<String>();
+                cvariants.add("");
+                cduplicates.add("");
+
+                String cvar;
+                while ((cvar = cvariants.poll()) != null) {
+                    tryConfiguration(context, variants, duplicates, cvar, cvariants, cduplicates);
+                }
 
-            String cvar;
-            while ((cvar = cvariants.poll()) != null) {
-                tryConfiguration(context, variants, duplicates, cvar, cvariants, cduplicates);
+                if (fingerprint != null) {
+                    VariantResolution.store(context, fingerprint, variants);
+                }
             }
 
             configuration_variants = variants;
             BootstrapNotifier.sendCheckpoint(context, "Configuration variant: '" + join(context, variants) + "'");
+            VariantRules.save(context);
         }
 
         return configuration_variants;
@@ -936,12 +1277,9 @@ public class RootConfiguration {
                 conf_files.add(resource);
             }
             for (ConfigFolder config_folder : config_folders) {
-                File folder = new File(config_folder.name);
-                if (folder.exists()) {
-                    File conf_file = new File(folder,file_name);
-                    if (conf_file.exists() && conf_file.canRead()) {
-                        conf_files.add(conf_file.toURI().toURL());
-                    }
+                File conf_file = new File(config_folder.name, file_name);
+                if (FolderListing.isKnownAbsent(conf_file) == false && conf_file.exists() && conf_file.canRead()) {
+                    conf_files.add(conf_file.toURI().toURL());
                 }
             }
             if (getVariants(context) != null) {
@@ -952,12 +1290,9 @@ public class RootConfiguration {
                         conf_files.add(resource);
                     }
                     for (ConfigFolder config_folder : config_folders) {
-                        File folder = new File(config_folder.name);
-                        if (folder.exists()) {
-                            File conf_file = new File(folder,file_name);
-                            if (conf_file.exists() && conf_file.canRead()) {
-                                conf_files.add(conf_file.toURI().toURL());
-                            }
+                        File conf_file = new File(config_folder.name, file_name);
+                        if (FolderListing.isKnownAbsent(conf_file) == false && conf_file.exists() && conf_file.canRead()) {
+                            conf_files.add(conf_file.toURI().toURL());
                         }
                     }
                 }
@@ -986,14 +1321,9 @@ public class RootConfiguration {
     static protected synchronized void loadProperties (CallContext context, String base_resource, Class from_class, boolean read_config_folders) {
         String resource = base_resource;
         String loaded = (initial_properties_loaded ? null : "");
-        loaded = loadPropertiesFromStream(context, from_class, null, resource, loaded);
-        if (read_config_folders) {
-            for (ConfigFolder config_folder : config_folders) {
-                if (config_folder.sphenon_specific) {
-                    loaded = loadPropertiesFromStream(context, null, config_folder.name, resource, loaded);
-                }
-            }
-        }
+        List<PropertySource> sources = new ArrayList<PropertySource>();
+        addPropertySources(context, sources, from_class, resource, read_config_folders);
+        loaded = loadPropertiesFromSources(context, sources, loaded);
         if (initial_properties_loaded == false) {
             initial_properties_loaded = true;
             Configuration.trace_mode = Configuration.get(context, "com.sphenon.basics.configuration", "DEBUG_TRACE", Configuration.trace_mode);
@@ -1007,20 +1337,36 @@ public class RootConfiguration {
             BootstrapNotifier.sendCheckpoint(context,  "Loaded initial property resources: '" + loaded + "'");
         }
         if (getVariants(context) != null) {
+            sources = new ArrayList<PropertySource>();
             for (String variant : getVariants(context)) {
-                resource = base_resource + "-" + variant;
-                loadPropertiesFromStream(context, from_class, null, resource, null);
-                if (read_config_folders) {
-                    for (ConfigFolder config_folder : config_folders) {
-                        if (config_folder.sphenon_specific) {
-                            loaded = loadPropertiesFromStream(context, null, config_folder.name, resource, null);
-                        }
-                    }
+                addPropertySources(context, sources, from_class, base_resource + "-" + variant, read_config_folders);
+            }
+            loadPropertiesFromSources(context, sources, null);
+        }
+    }
+
+    /**
+       Appends the sources of a resource, in precedence order, to a list.
+     */
+    static protected void addPropertySources(CallContext context, List<PropertySource> sources, Class from_class, String resource, boolean read_config_folders) {
+        if (from_class != null) {
+            sources.add(new PropertySource(context, from_class, null, resource));
+        }
+        if (read_config_folders) {
+            for (ConfigFolder config_folder : config_folders) {
+                if (config_folder.sphenon_specific) {
+                    sources.add(new PropertySource(context, null, config_folder.name, resource));
                 }
             }
         }
     }
 
+    /**
+       The sources of the user property table in load order, including
+       folder files which did not exist at load time, see {@link reload}.
+     */
+    static protected List<PropertySource> user_property_sources = new ArrayList<PropertySource>();
+
     /**
        Loads properties from a class resource or from a file into the internal
        property table of this Configuration instance.
@@ -1039,62 +1385,51 @@ public class RootConfiguration {
        @return See loaded argument for description, null if loaded was null
      */
     static protected String loadPropertiesFromStream(CallContext context, Class from_class, String from_folder, String resource, String loaded) {
-        try {
-            if (from_class != null) {
-                InputStream in = from_class.getResourceAsStream(resource);
-                if (in != null) {
-                    if (loaded == null) {
-                        BootstrapNotifier.sendCheckpoint(context,  "Loading property resource '" + from_class.getName() + "'/'" + resource + "'");
-                    } else {
-                        loaded += (loaded.length() == 0 ? "" : ", ") + from_class.getName() + "/" + resource;
-                    }
-                    properties.load(in);
-                    in.close();
-                    // ~~~ debug ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-                    if (trace_property_origins) {
-                        InputStream in4keys = from_class.getResourceAsStream(resource);
-                        Properties p4keys = new Properties();
-                        p4keys.load(in4keys);
-                        in4keys.close();
-                        for (String key : p4keys.stringPropertyNames()) {
-                            properties.setProperty(key + "@Origin", from_class.getName() + "/" + resource);
-                        }
-                    }
-                    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-                }
-            } else if (from_folder != null) {
-                File file = new File(from_folder + "/" + resource);
-                if (file.exists()) {
-                    InputStream in = new FileInputStream(file);
-                    if (loaded == null) {
-                        BootstrapNotifier.sendCheckpoint(context,  "Loading property resource '" + from_folder + "'/'" + resource + "'");
-                    } else {
-                        loaded += (loaded.length() == 0 ? "" : ", ") + from_folder + "/" + resource;
-                    }
-                    properties.load(in);
-                    in.close();
-                    // ~~~ debug ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-                    if (trace_property_origins) {
-                        InputStream in4keys = new FileInputStream(file);
-                        Properties p4keys = new Properties();
-                        p4keys.load(in4keys);
-                        in4keys.close();
-                        for (String key : p4keys.stringPropertyNames()) {
-                            properties.setProperty(key + "@Origin", from_folder + "/" + resource);
-                        }
-                    }
-                    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-                }
+        if (from_class == null && from_folder == null) { return loaded; }
+        List<PropertySource> sources = new ArrayList<PropertySource>();
+        sources.add(new PropertySource(context, from_class, from_folder, resource));
+        return loadPropertiesFromSources(context, sources, loaded);
+    }
+
+    /**
+       Loads several sources into the internal property table. The sources
+       are read concurrently (see {@link PropertySource#loadAll}) and merged
+       in the order given, so later sources take precedence like before.
+
+       @param sources The sources, in precedence order
+       @param loaded  See loadPropertiesFromStream
+       @return See loadPropertiesFromStream
+     */
+    static protected String loadPropertiesFromSources(CallContext context, List<PropertySource> sources, String loaded) {
+        synchronized (user_property_sources) {
+            user_property_sources.addAll(sources);
+        }
+
+        List<Properties> all_entries = PropertySource.loadAll(context, sources);
+
+        Set<String> keys = new HashSet<String>();
+        for (int s=0; s<sources.size(); s++) {
+            PropertySource source  = sources.get(s);
+            Properties     entries = all_entries.get(s);
+            if (entries == null) { continue; }
+            if (loaded == null) {
+                BootstrapNotifier.sendCheckpoint(context,  "Loading property resource " + source.getLocation(context));
+            } else {
+                loaded += (loaded.length() == 0 ? "" : ", ") + source.getId(context);
             }
-        } catch (IOException ioe)  {
-            Message message = null;
-            if (from_class != null) {
-                message = SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed: " + resource + " from class " + from_class.getName()), ProblemState.ERROR);
-            } else if (from_folder != null) {
-                message = SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed: " + resource + " from folder " + from_folder), ProblemState.ERROR);
+            properties.putAll(entries);
+            keys.addAll(entries.stringPropertyNames());
+            cached_raw.keySet().removeAll(entries.stringPropertyNames());
+            // ~~~ debug ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+            if (trace_property_origins) {
+                for (String key : entries.stringPropertyNames()) {
+                    properties.setProperty(key + "@Origin", source.getId(context));
+                }
             }
-            ExceptionEnvironmentError.createAndThrow(context, ioe, message);
-            throw (ExceptionEnvironmentFailure) null; // compiler insists
+            // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+        }
+        if (keys.isEmpty() == false) {
+            publishSnapshot(context, keys);
         }
         return loaded;
     }
@@ -1113,7 +1448,10 @@ public class RootConfiguration {
        @param value Values to set
     */
     static public void setDefaultProperty(CallContext call_context, String name, String value) {
-        default_properties.put(name, value);
+        synchronized (RootConfiguration.class) {
+            default_properties.put(name, value);
+            publishSnapshot(call_context, Collections.singleton(name));
+        }
     }
 
     /**
@@ -1134,25 +1472,28 @@ public class RootConfiguration {
     static public synchronized void loadDefaultProperties(CallContext context, Class class_where_resources_reside) {
         initialise(context);
 
-        loadDefaultPropertyResource(context, class_where_resources_reside, ".properties");
-        loadDefaultPropertyResource(context, class_where_resources_reside, ".generated.properties");
-        loadDefaultPropertyResource(context, class_where_resources_reside, ".generated-properties");
+        List<String> resources = new ArrayList<String>();
+        resources.add(".properties");
+        resources.add(".generated.properties");
+        resources.add(".generated-properties");
 
         for (String ip : getIncludeProperties(context)) {
-            loadDefaultPropertyResource(context, class_where_resources_reside, ip);
+            resources.add(ip);
         }
 
         if (getVariants(context) != null) {
             for (String variant : getVariants(context)) {
-                loadDefaultPropertyResource(context, class_where_resources_reside, ".properties-" + variant);
-                loadDefaultPropertyResource(context, class_where_resources_reside, ".generated.properties-" + variant);
-                loadDefaultPropertyResource(context, class_where_resources_reside, ".generated-properties-" + variant);
+                resources.add(".properties-" + variant);
+                resources.add(".generated.properties-" + variant);
+                resources.add(".generated-properties-" + variant);
 
                 for (String ip : getIncludeProperties(context)) {
-                    loadDefaultPropertyResource(context, class_where_resources_reside, ip + "-" + variant);
+                    resources.add(ip + "-" + variant);
                 }
             }
         }
+
+        loadDefaultPropertyResources(context, class_where_resources_reside, resources);
     }
 
     /**
@@ -1173,12 +1514,15 @@ public class RootConfiguration {
     static public synchronized void loadDefaultProperties(CallContext context, Class class_where_resources_reside, String resource_name) {
         initialise(context);
 
-        loadDefaultPropertyResource(context, class_where_resources_reside, resource_name);
+        List<String> resources = new ArrayList<String>();
+        resources.add(resource_name);
         if (getVariants(context) != null) {
             for (String variant : getVariants(context)) {
-                loadDefaultPropertyResource(context, class_where_resources_reside, resource_name + "-" + variant);
+                resources.add(resource_name + "-" + variant);
             }
         }
+
+        loadDefaultPropertyResources(context, class_where_resources_reside, resources);
     }
 
     /**
@@ -1191,27 +1535,76 @@ public class RootConfiguration {
        @param resource The name of the resource to load
      */
     static protected void loadDefaultPropertyResource(CallContext context, Class class_where_resources_reside, String resource) {
-        InputStream in = class_where_resources_reside.getResourceAsStream(resource);
-        if (in != null) {
-            BootstrapNotifier.sendCheckpoint(context,  "Loading default property resource '" + class_where_resources_reside.getName() + "'/'" + resource + "'");
-            try {
-                default_properties.load(in);
-                in.close();
+        loadDefaultPropertyResources(context, class_where_resources_reside, Collections.singletonList(resource));
+    }
+
+    /**
+       Helper: loads several resources from a class into the default
+       properties. The resources are read concurrently and merged in the
+       order given.
+
+       If property com.sphenon.basics.configuration.OffHeapFolder is set,
+       resources with at least OffHeapThreshold (default 10000) entries are
+       not merged into the default table, but kept in memory-mapped files
+       within that folder and consulted as layers, see {@link
+       OffHeapPropertyStore}. Up to date files are mapped without reading
+       the resource. Origins are not traced for such entries.
+
+       @param class_where_resources_reside See above
+       @param resources The names of the resources to load, in precedence order
+     */
+    static protected void loadDefaultPropertyResources(CallContext context, Class class_where_resources_reside, List<String> resources) {
+        List<PropertySource> sources = new ArrayList<PropertySource>(resources.size());
+        for (String resource : resources) {
+            if (ResourceIndex.isKnownAbsent(context, class_where_resources_reside, resource)) { continue; }
+            sources.add(new PropertySource(context, class_where_resources_reside, null, resource));
+        }
+        if (sources.isEmpty()) { return; }
+
+        String offheap_folder = Configuration.get(context, "com.sphenon.basics.configuration", "OffHeapFolder", (String) null);
+        OffHeapPropertyStore[] stores = new OffHeapPropertyStore[sources.size()];
+        List<PropertySource> to_load = sources;
+        if (offheap_folder != null) {
+            to_load = new ArrayList<PropertySource>(sources.size());
+            for (int s=0; s<sources.size(); s++) {
+                stores[s] = OffHeapPropertyStore.open(context, offheap_folder, sources.get(s));
+                if (stores[s] == null) { to_load.add(sources.get(s)); }
+            }
+        }
+
+        List<Properties> loaded_entries = PropertySource.loadAll(context, to_load);
+
+        synchronized (RootConfiguration.class) {
+            int offheap_threshold = Configuration.get(context, "com.sphenon.basics.configuration", "OffHeapThreshold", 10000);
+            Set<String> keys = new HashSet<String>();
+            for (int s=0, l=0; s<sources.size(); s++) {
+                PropertySource source  = sources.get(s);
+                if (stores[s] != null) {
+                    addLayer(context, stores[s], keys);
+                    continue;
+                }
+                Properties entries = loaded_entries.get(l++);
+                if (entries == null) { continue; }
+                if (offheap_folder != null && entries.size() >= offheap_threshold) {
+                    OffHeapPropertyStore store = OffHeapPropertyStore.create(context, offheap_folder, source, entries);
+                    if (store != null) {
+                        addLayer(context, store, keys);
+                        continue;
+                    }
+                }
+                BootstrapNotifier.sendCheckpoint(context,  "Loading default property resource " + source.getLocation(context));
+                default_properties.putAll(entries);
+                keys.addAll(entries.stringPropertyNames());
                 // ~~~ debug ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
                 if (trace_property_origins) {
-                    InputStream in4keys = class_where_resources_reside.getResourceAsStream(resource);
-                    Properties p4keys = new Properties();
-                    p4keys.load(in4keys);
-                    in4keys.close();
-                    for (String key : p4keys.stringPropertyNames()) {
-                        properties.setProperty(key + "@Origin", class_where_resources_reside.getName() + "/" + resource);
+                    for (String key : entries.stringPropertyNames()) {
+                        default_properties.setProperty(key + "@Origin", source.getId(context));
                     }
                 }
                 // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-            } catch (IOException ioe) {
-                Message message = SystemStateMessage.create(context, MessageText.create(context, "Loading of properties failed"), ProblemState.ERROR);
-                ExceptionEnvironmentError.createAndThrow(context, ioe, message);
-                throw (ExceptionEnvironmentFailure) null; // compiler insists
+            }
+            if (keys.isEmpty() == false) {
+                publishSnapshot(context, keys);
             }
         }
     }
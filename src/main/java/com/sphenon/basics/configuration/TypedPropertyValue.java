@@ -0,0 +1,97 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+import java.util.*;
+
+/**
+   The value of a single entry of a PropertySnapshot together with it's
+   typed interpretations, which are parsed on first typed access.
+
+   Instances belong to exactly one snapshot; since each modification of the
+   property tables publishes a new snapshot, parsed values are dropped
+   whenever an entry changes. Invalid values are not cached, so each access
+   to them is reported like before.
+
+   The cached fields are written without synchronisation; all cached
+   objects are immutable, so a concurrent reader at worst parses again.
+ */
+public class TypedPropertyValue {
+
+    /**
+       Returned by lookups to indicate that the entry definitely does not
+       exist, in contrast to null, which indicates that no typed value is
+       available and the regular accessors have to be used.
+     */
+    static public final TypedPropertyValue MISSING = new TypedPropertyValue(null);
+
+    protected final String value;
+
+    protected Boolean      as_boolean;
+    protected Integer      as_int;
+    protected Long         as_long;
+    protected List<String> as_list;
+
+    public TypedPropertyValue (String value) {
+        this.value = value;
+    }
+
+    public String getValue () {
+        return this.value;
+    }
+
+    public boolean getBoolean (CallContext context, String prefix, String key, boolean default_value) {
+        Boolean result = this.as_boolean;
+        if (result == null) {
+            if ((result = Configuration.parseBoolean(this.value)) == null) {
+                return Configuration.convertToBoolean(context, prefix, key, this.value, default_value);
+            }
+            this.as_boolean = result;
+        }
+        return result;
+    }
+
+    public int getInt (CallContext context, String prefix, String key, int default_value) {
+        Integer result = this.as_int;
+        if (result == null) {
+            if ((result = Configuration.parseInt(this.value)) == null) {
+                return Configuration.convertToInt(context, prefix, key, this.value, default_value);
+            }
+            this.as_int = result;
+        }
+        return result;
+    }
+
+    public long getLong (CallContext context, String prefix, String key, long default_value) {
+        Long result = this.as_long;
+        if (result == null) {
+            if ((result = Configuration.parseLong(this.value)) == null) {
+                return Configuration.convertToLong(context, prefix, key, this.value, default_value);
+            }
+            this.as_long = result;
+        }
+        return result;
+    }
+
+    public List<String> getList (CallContext context) {
+        List<String> result = this.as_list;
+        if (result == null) {
+            this.as_list = result = Configuration.parseList(this.value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+/**
+   A persistent memo of the variant sequence determined by
+   RootConfiguration.getVariants.
+
+   The result depends only on the basic parameters (user, os, osversion,
+   javaversion, the configuration, ui, db and explicit variant names, and
+   the configuration folders), which form the fingerprint, on the variant
+   files consulted and, if any rule referred to it, on the host name,
+   which is then stored and compared, too; a result which does not
+   depend on the host is reused without waiting for host name resolution,
+   see {@link EnvironmentFacts}. While resolving, every variant file
+   probed is recorded with it's stamp (modification time and size, see
+   ConfigurationFiles.stamp), including files which do not exist. A
+   stored result is reused if the fingerprint is equal and all recorded
+   probes still yield the same stamps, i.e. no file was modified, created
+   or deleted; the host and user classes collected while resolving are
+   restored, too. Otherwise the variants are resolved as usual and the
+   memo is rewritten.
+
+   Enabled via system property
+   com.sphenon.basics.configuration.VariantResolutionStore, which names the
+   file (a system property, since variants are needed before any
+   configuration is read).
+ */
+public class VariantResolution {
+
+    static protected final int    MAGIC  = 0x53565231;  // "SVR1"
+    static public    final String ABSENT = "-";     // stamp of probes of absent files
+
+    static protected String path = System.getProperty("com.sphenon.basics.configuration.VariantResolutionStore");
+
+    static protected Map<String,String> probes;     // recording, if non null
+    static protected boolean            stampable;
+    static protected boolean            host_used;
+
+    protected String         fingerprint;
+    protected String         host;          // null if not host dependent
+    protected List<String>   variants;
+    protected Vector<String> hostclasses;
+    protected Vector<String> userclasses;
+    protected Map<String,String> recorded;
+
+    static public boolean isEnabled () {
+        return path != null;
+    }
+
+    /**
+       Replaces the store file named by the system property; takes effect
+       for the variant sequence only if invoked before the configuration is
+       initialised.
+
+       @param new_path The store file, or null to disable the store
+       @return The previous store file
+     */
+    static public String setStorePath (String new_path) {
+        String previous = path;
+        path = new_path;
+        return previous;
+    }
+
+    /**
+       Builds the fingerprint of the current basic parameters, see
+       RootConfiguration.prepareBasicParameters.
+     */
+    static public String fingerprint (CallContext context) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : new String[] { RootConfiguration.user, RootConfiguration.os, RootConfiguration.osversion, RootConfiguration.javaversion, RootConfiguration.configuration_name, RootConfiguration.configuration_ui_name, RootConfiguration.configuration_db_name, RootConfiguration.explicit_configuration_variant }) {
+            sb.append(part).append('\u0000');
+        }
+        if (RootConfiguration.config_folders != null) {
+            for (RootConfiguration.ConfigFolder config_folder : RootConfiguration.config_folders) {
+                sb.append(config_folder.name).append(config_folder.sphenon_specific ? "+" : "-").append('\u0000');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+       Retrieves the stored result, if it is still valid, and restores the
+       host and user classes.
+
+       @return The variants, or null if they have to be resolved
+     */
+    static public List<String> lookup (CallContext context, String fingerprint) {
+        VariantResolution stored = read(context);
+        if (stored == null || stored.fingerprint.equals(fingerprint) == false) { return null; }
+        if (stored.host != null && stored.host.equals(RootConfiguration.getHost(context)) == false) { return null; }
+        for (Map.Entry<String,String> probe : stored.recorded.entrySet()) {
+            if (probe.getValue().equals(stamp(probe.getKey())) == false) {
+                BootstrapNotifier.sendTrace(context,  "stored configuration variants outdated, '" + probe.getKey() + "' changed");
+                return null;
+            }
+        }
+        RootConfiguration.hostclasses = stored.hostclasses;
+        RootConfiguration.userclasses = stored.userclasses;
+        BootstrapNotifier.sendTrace(context,  "using stored configuration variants");
+        return stored.variants;
+    }
+
+    /**
+       Starts recording probes of variant files.
+     */
+    static public void startRecording (CallContext context) {
+        probes    = new LinkedHashMap<String,String>();
+        stampable = true;
+        host_used = false;
+    }
+
+    /**
+       Records that the host name was consulted, see RootConfiguration.getHost.
+     */
+    static public void usesHost () {
+        if (probes != null) { host_used = true; }
+    }
+
+    /**
+       Records a probe of a variant file, see
+       RootConfiguration.tryConfigurationFile and tryConfigurationResource.
+
+       @param probe Either "F" plus a file path or "R" plus a class name,
+                    a "|" and a resource name
+       @param stamp The stamp of the file, ABSENT if it does not exist, or
+                    null if it can not be stamped
+     */
+    static public void probe (String probe, String stamp) {
+        if (probes == null) { return; }
+        if (stamp == null) {
+            stampable = false;
+        } else {
+            probes.put(probe, stamp);
+        }
+    }
+
+    static protected String stamp (String probe) {
+        if (probe.startsWith("F")) {
+            File file = new File(probe.substring(1));
+            return (FolderListing.isKnownAbsent(file) == false && file.exists() ? ConfigurationFiles.stamp(file, file.getPath()) : ABSENT);
+        }
+        int separator = probe.indexOf('|');
+        try {
+            Class java_class = Class.forName(probe.substring(1, separator), false, VariantResolution.class.getClassLoader());
+            URL url = java_class.getResource(probe.substring(separator + 1));
+            return (url == null ? ABSENT : ConfigurationFiles.stamp(url));
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        }
+    }
+
+    /**
+       Stops recording and stores the result, if all probes could be
+       stamped.
+     */
+    static public void store (CallContext context, String fingerprint, List<String> variants) {
+        Map<String,String> recorded = probes;
+        probes = null;
+        if (recorded == null || stampable == false) { return; }
+        File file      = new File(path);
+        File temporary = new File(path + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(fingerprint);
+                out.writeBoolean(host_used);
+                if (host_used) { out.writeUTF(RootConfiguration.host); }
+                writeStrings(out, variants);
+                writeStrings(out, RootConfiguration.hostclasses);
+                writeStrings(out, RootConfiguration.userclasses);
+                out.writeInt(recorded.size());
+                for (Map.Entry<String,String> probe : recorded.entrySet()) {
+                    out.writeUTF(probe.getKey());
+                    out.writeUTF(probe.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            ConfigurationFiles.replaceAtomically(temporary, file);
+        } catch (IOException ioe) {
+            Configuration.messenger.message(context, MessageText.create(context, "Could not write variant resolution store '%(file)': %(reason)", "file", path, "reason", ioe.toString()));
+        }
+    }
+
+    static protected VariantResolution read (CallContext context) {
+        File file = new File(path);
+        if (file.exists() == false) { return null; }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) { return null; }
+                VariantResolution stored = new VariantResolution();
+                stored.fingerprint = in.readUTF();
+                stored.host        = (in.readBoolean() ? in.readUTF() : null);
+                stored.variants    = readStrings(in);
+                stored.hostclasses = readStrings(in);
+                stored.userclasses = readStrings(in);
+                stored.recorded    = new LinkedHashMap<String,String>();
+                int count = readCount(in);
+                for (int p=0; p<count; p++) {
+                    String probe = in.readUTF();
+                    stored.recorded.put(probe, in.readUTF());
+                }
+                if (stored.variants == null) { return null; }
+                return stored;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            discard(context, file, ioe);
+            return null;
+        } catch (RuntimeException re) {
+            discard(context, file, re);
+            return null;
+        }
+    }
+
+    /**
+       Deletes a damaged store file, it is rewritten after the variants have
+       been resolved.
+     */
+    static protected void discard (CallContext context, File file, Exception reason) {
+        BootstrapNotifier.sendTrace(context,  "discarding unreadable variant resolution store '" + file.getPath() + "': " + reason);
+        file.delete();
+    }
+
+    /**
+       Reads a count, which is -1 for absent lists, rejecting implausible
+       values of damaged files before allocating anything.
+     */
+    static protected int readCount (DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < -1 || count > 0xfffff) {
+            throw new IOException("invalid count in variant resolution store");
+        }
+        return count;
+    }
+
+    static protected void writeStrings (DataOutputStream out, List<String> strings) throws IOException {
+        if (strings == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    static protected Vector<String> readStrings (DataInputStream in) throws IOException {
+        int count = readCount(in);
+        if (count == -1) { return null; }
+        Vector<String> strings = new Vector<String>(count);
+        for (int s=0; s<count; s++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,504 @@
+package com.sphenon.basics.configuration;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.exception.*;
+import com.sphenon.basics.monitoring.ProblemState;
+import com.sphenon.basics.notification.BootstrapNotifier;
+
+import java.util.*;
+import java.util.regex.*;
+import java.io.*;
+
+/**
+   The compiled form of a variant (configuration) file, see
+   RootConfiguration.getVariants and RootConfiguration.parseVariantFile.
+
+   Each line is split once into it's directive (host or user class,
+   include) or rule conditions and variants; the regular expressions of
+   the conditions are compiled on first use and then reused, host and
+   user class members are kept in sets.
+
+   Evaluation against the current host, user, os and names is equivalent
+   to interpreting the text line by line: lines are evaluated in order,
+   with the same side effects (host and user classes, includes) and the
+   same syntax errors, which are raised only when the offending line
+   respectively rule key is reached, as before. Invalid regular
+   expressions fail on first use, too.
+
+   Compiled files are cached in memory per source and stamp. If system
+   property com.sphenon.basics.configuration.VariantRuleStore names a
+   file, the cache is persisted there. File layout (DataOutput): magic
+   "SVC1", number of files, then per file source name, stamp, number of
+   lines and per line it's fields; absent strings are preceded by false.
+ */
+public class VariantRules {
+
+    static protected final int MAGIC = 0x53564331;  // "SVC1"
+
+    static protected final Pattern BLANK   = Pattern.compile("^\\s*$");
+    static protected final Pattern COMMENT = Pattern.compile("^\\s*#.*");
+
+    static protected final int ERROR               = 0;
+    static protected final int HOSTCLASS           = 1;
+    static protected final int USERCLASS           = 2;
+    static protected final int INCLUDE_IMMEDIATELY = 3;
+    static protected final int INCLUDE_AFTERWARDS  = 4;
+    static protected final int RULE                = 5;
+
+    static protected class LazyPattern {
+        public LazyPattern(String regexp) { this.regexp = regexp; }
+        protected final String    regexp;
+        protected volatile Pattern pattern;
+        public boolean matches(String string) {
+            Pattern compiled = this.pattern;
+            if (compiled == null) { this.pattern = compiled = Pattern.compile(this.regexp); }
+            return compiled.matcher(string).matches();
+        }
+        public boolean matchesAny(Vector<String> strings) {
+            if (strings != null) {
+                for (String string : strings) {
+                    if (matches(string)) { return true; }
+                }
+            }
+            return false;
+        }
+    }
+
+    static protected class Condition {
+        protected String      kind;
+        protected LazyPattern inc;
+        protected LazyPattern exc;      // null if not given
+        protected String      error;    // non null if the key is malformed
+    }
+
+    static protected class Line {
+        protected int         type;
+        protected int         linenbr;
+        protected String      line;
+        protected String      error;
+        protected String      name;        // host or user class
+        protected Set<String> members;     // of host or user class
+        protected String[]    includes;
+        protected Condition[] conditions;
+        protected String      variants;
+    }
+
+    protected String     sourcename;
+    protected String     stamp;
+    protected List<Line> lines;
+
+    protected VariantRules (String sourcename, String stamp) {
+        this.sourcename = sourcename;
+        this.stamp      = stamp;
+        this.lines      = new ArrayList<Line>();
+    }
+
+    /**
+       Compiles a variant file.
+
+       @param reader     Where the data is read from
+       @param sourcename Name of source associated with the reader for
+                         debugging and error reporting purposes
+       @param stamp      Identifies the state of the source for caching,
+                         may be null
+     */
+    static public VariantRules compile (CallContext context, Reader reader, String sourcename, String stamp) {
+        VariantRules rules = new VariantRules(sourcename, stamp);
+        BufferedReader br = new BufferedReader(reader);
+        String text;
+        int linenbr = 0;
+        try {
+            while ((text = br.readLine()) != null) {
+                linenbr++;
+                if (BLANK.matcher(text).matches())   { continue; }
+                if (COMMENT.matcher(text).matches()) { continue; }
+                rules.lines.add(compileLine(text, linenbr));
+            }
+        } catch (IOException ioe) {
+            ExceptionConfigurationError.createAndThrow(context, ioe, SystemStateMessage.create(context, MessageText.create(context, "Configuration file '%(source)' unreadable", "source", sourcename), ProblemState.ERROR));
+            throw (ExceptionConfigurationError) null; // compiler insists
+        }
+        return rules;
+    }
+
+    static protected Line compileLine (String text, int linenbr) {
+        Line line = new Line();
+        line.linenbr = linenbr;
+        line.line    = text;
+
+        String[] keyval = text.split("=",-1);
+        if (keyval.length != 2) {
+            line.type  = ERROR;
+            line.error = "Syntax error in configuration file '%(source)', line %(linenbr), expected exatly one '=' separator: '%(line)'";
+            return line;
+        }
+        if (keyval[0].startsWith("@hostclass:") || keyval[0].startsWith("@userclass:")) {
+            boolean is_host = keyval[0].startsWith("@hostclass:");
+            line.type = (is_host ? HOSTCLASS : USERCLASS);
+            line.name = keyval[0].substring(11);
+            if (line.name.isEmpty()) {
+                line.type  = ERROR;
+                line.error = "Syntax error in configuration file '%(source)', line %(linenbr), " + (is_host ? "host" : "user") + " class is empty: '%(line)'";
+                return line;
+            }
+            line.members = new HashSet<String>();
+            for (String entry : keyval[1].split(",")) {
+                if (entry.isEmpty() == false) { line.members.add(entry); }
+            }
+            return line;
+        }
+        if (keyval[0].equals("@include.immediately") || keyval[0].equals("@include.afterwards")) {
+            line.type = (keyval[0].equals("@include.immediately") ? INCLUDE_IMMEDIATELY : INCLUDE_AFTERWARDS);
+            List<String> includes = new ArrayList<String>();
+            for (String include : keyval[1].split(",")) {
+                if (include.isEmpty() == false) { includes.add(include); }
+            }
+            line.includes = includes.toArray(new String[includes.size()]);
+            return line;
+        }
+        line.type     = RULE;
+        line.variants = keyval[1];
+        List<Condition> conditions = new ArrayList<Condition>();
+        for (String key : keyval[0].split(",",-1)) {
+            if (key.length() == 0) { continue; }
+            Condition condition = new Condition();
+            String[] rule = key.split(":",-1);
+            if (rule.length != 2 && rule.length != 3) {
+                condition.error = "Syntax error in configuration file '%(source)', line %(linenbr), a key rule entry must contain either one or two ':' separators: '%(line)'";
+            } else if (rule[0].length() == 0) {
+                condition.error = "Syntax error in configuration file '%(source)', line %(linenbr), a key rule key must not be empty: '%(line)'";
+            } else {
+                condition.kind = rule[0];
+                condition.inc  = new LazyPattern(rule[1]);
+                condition.exc  = (rule.length == 2 ? null : new LazyPattern(rule[2]));
+            }
+            conditions.add(condition);
+        }
+        line.conditions = conditions.toArray(new Condition[conditions.size()]);
+        return line;
+    }
+
+    protected void fail (CallContext context, String error, Line line) {
+        ExceptionConfigurationError.createAndThrow(context, SystemStateMessage.create(context, MessageText.create(context, error, "source", this.sourcename, "linenbr", t.s(line.linenbr), "line", line.line), ProblemState.ERROR));
+        throw (ExceptionConfigurationError) null; // compiler insists
+    }
+
+    /**
+       Evaluates the compiled file against the current basic parameters,
+       see RootConfiguration.parseVariantFile.
+
+       @param variants   Partially calculated variant sequence, which is augmented
+       @param duplicates A set used to check for duplicates in the variants list
+     */
+    public void evaluate (CallContext context, List<String> variants, Set<String> duplicates, Queue<String> cvariants, Set<String> cduplicates) {
+        BootstrapNotifier.sendCheckpoint(context,  "parsing variant file '" + this.sourcename + "'");
+
+        String[] ui_names = null;
+        String[] db_names = null;
+
+        lines: for (Line line : this.lines) {
+            BootstrapNotifier.sendTrace(context,  "got line '" + line.line + "'");
+            switch (line.type) {
+                case ERROR:
+                    fail(context, line.error, line);
+                    continue lines;
+                case HOSTCLASS:
+                    if (line.members.contains(RootConfiguration.getHost(context))) {
+                        if (RootConfiguration.hostclasses == null) {
+                            RootConfiguration.hostclasses = new Vector<String>();
+                        }
+                        RootConfiguration.hostclasses.add(line.name);
+                        BootstrapNotifier.sendTrace(context,  "host class '" + line.name + "'");
+                    }
+                    continue lines;
+                case USERCLASS:
+                    if (line.members.contains(RootConfiguration.user)) {
+                        if (RootConfiguration.userclasses == null) {
+                            RootConfiguration.userclasses = new Vector<String>();
+                        }
+                        RootConfiguration.userclasses.add(line.name);
+                        BootstrapNotifier.sendTrace(context,  "user class '" + line.name + "'");
+                    }
+                    continue lines;
+                case INCLUDE_IMMEDIATELY:
+                    for (String include : line.includes) {
+                        BootstrapNotifier.sendTrace(context,  "including configuration '" + include + "' immediately");
+                        RootConfiguration.tryConfiguration(context, variants, duplicates, include, cvariants, cduplicates);
+                    }
+                    continue lines;
+                case INCLUDE_AFTERWARDS:
+                    for (String include : line.includes) {
+                        BootstrapNotifier.sendTrace(context,  "including configuration '" + include + "' afterwards");
+                        if (cduplicates.contains(include) == false) {
+                            cvariants.add(include);
+                            cduplicates.add(include);
+                        }
+                    }
+                    continue lines;
+            }
+
+            for (Condition condition : line.conditions) {
+                if (condition.error != null) {
+                    fail(context, condition.error, line);
+                }
+                LazyPattern inc = condition.inc;
+                LazyPattern exc = condition.exc;
+                String      kind = condition.kind;
+                if (kind.equals("host")          && (inc.matches(RootConfiguration.getHost(context)) == false               || (exc != null && exc.matches(RootConfiguration.getHost(context))))) { continue lines; }
+                if (kind.equals("hostclass")     && (inc.matchesAny(RootConfiguration.hostclasses) == false     || (exc != null && exc.matchesAny(RootConfiguration.hostclasses)))) { continue lines; }
+                if (kind.equals("user")          && (inc.matches(RootConfiguration.user) == false               || (exc != null && exc.matches(RootConfiguration.user)))) { continue lines; }
+                if (kind.equals("userclass")     && (inc.matchesAny(RootConfiguration.userclasses) == false     || (exc != null && exc.matchesAny(RootConfiguration.userclasses)))) { continue lines; }
+                if (kind.equals("os")            && (inc.matches(RootConfiguration.os) == false                 || (exc != null && exc.matches(RootConfiguration.os)))) { continue lines; }
+                if (kind.equals("osversion")     && (inc.matches(RootConfiguration.osversion) == false          || (exc != null && exc.matches(RootConfiguration.osversion)))) { continue lines; }
+                if (kind.equals("javaversion")   && (inc.matches(RootConfiguration.javaversion) == false        || (exc != null && exc.matches(RootConfiguration.javaversion)))) { continue lines; }
+                if (kind.equals("configuration") && (inc.matches(RootConfiguration.configuration_name) == false || (exc != null && exc.matches(RootConfiguration.configuration_name)))) { continue lines; }
+                if (kind.equals("ui")) {
+                    if (ui_names == null) { ui_names = RootConfiguration.configuration_ui_name.split(":"); }
+                    if (matchesOne(ui_names, inc, exc) == false) { continue lines; }
+                }
+                if (kind.equals("db")) {
+                    if (db_names == null) { db_names = RootConfiguration.configuration_db_name.split(":"); }
+                    if (matchesOne(db_names, inc, exc) == false) { continue lines; }
+                }
+                if (kind.equals("variants")) {
+                    String explicit = RootConfiguration.explicit_configuration_variant;
+                    if (explicit.length() == 0) {
+                        boolean got_one_inc = inc.matches(explicit);
+                        boolean got_one_exc = (exc != null && exc.matches(explicit));
+                        if ( ! got_one_inc || got_one_exc) { continue lines; }
+                    } else {
+                        if (matchesOne(variants, inc, exc) == false) { continue lines; }
+                    }
+                }
+            }
+            BootstrapNotifier.sendTrace(context,  "match, appending '" + line.variants + "'");
+
+            RootConfiguration.addVariants(context, variants, duplicates, line.variants);
+        }
+        BootstrapNotifier.sendTrace(context,  "result '" + RootConfiguration.join(context, variants) + "'");
+    }
+
+    /**
+       @return true if at least one of the names matches inc and none of
+               them up to the first one matching exc
+     */
+    static protected boolean matchesOne (Iterable<String> names, LazyPattern inc, LazyPattern exc) {
+        boolean got_one_inc = false;
+        for (String name : names) {
+            got_one_inc = got_one_inc || inc.matches(name);
+            if (exc != null && exc.matches(name)) { return false; }
+        }
+        return got_one_inc;
+    }
+
+    static protected boolean matchesOne (String[] names, LazyPattern inc, LazyPattern exc) {
+        return matchesOne(Arrays.asList(names), inc, exc);
+    }
+
+    // -------------------------------------------------------------------------------------------------------
+    // Cache -------------------------------------------------------------------------------------------------
+
+    static protected String                    store_path = System.getProperty("com.sphenon.basics.configuration.VariantRuleStore");
+    static protected Map<String,VariantRules>  cache;
+    static protected boolean                   modified;
+
+    /**
+       @param id    The source name
+       @param stamp The current stamp of the source, see ConfigurationImage,
+                    null if it can not be stamped
+       @return The compiled file, or null if it has to be compiled
+     */
+    static public synchronized VariantRules get (CallContext context, String id, String stamp) {
+        if (stamp == null) { return null; }
+        VariantRules rules = getCache(context).get(id);
+        return (rules != null && stamp.equals(rules.stamp) ? rules : null);
+    }
+
+    static public synchronized void put (CallContext context, VariantRules rules) {
+        if (rules.stamp == null) { return; }
+        getCache(context).put(rules.sourcename, rules);
+        modified = true;
+    }
+
+    static protected Map<String,VariantRules> getCache (CallContext context) {
+        if (cache == null) {
+            cache = new HashMap<String,VariantRules>();
+            if (store_path != null && new File(store_path).exists()) {
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store_path)));
+                    try {
+                        if (in.readInt() == MAGIC) {
+                            int count = readCount(in);
+                            for (int r=0; r<count; r++) {
+                                VariantRules rules = read(in);
+                                cache.put(rules.sourcename, rules);
+                            }
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException ioe) {
+                    // unreadable or incompatible, compile again
+                    cache.clear();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+       Writes the cache to the store file, if enabled and modified. Files
+       containing lines too long for DataOutput.writeUTF (65535 bytes) are
+       not stored.
+     */
+    static public synchronized void save (CallContext context) {
+        if (store_path == null || modified == false) { return; }
+        File file      = new File(store_path);
+        File temporary = new File(store_path + ".tmp");
+        try {
+            List<VariantRules> storable = new ArrayList<VariantRules>();
+            for (VariantRules rules : cache.values()) {
+                if (rules.fits()) { storable.add(rules); }
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(storable.size());
+                for (VariantRules rules : storable) {
+                    rules.write(out);
+                }
+            } finally {
+                out.close();
+            }
+            ConfigurationFiles.replaceAtomically(temporary, file);
+            modified = false;
+        } catch (IOException ioe) {
+            temporary.delete();
+            Configuration.messenger.message(context, MessageText.create(context, "Could not write variant rule store '%(file)': %(reason)", "file", store_path, "reason", ioe.toString()));
+        }
+    }
+
+    protected boolean fits () {
+        if (fits(this.sourcename) == false || fits(this.stamp) == false) { return false; }
+        for (Line line : this.lines) {
+            // all other strings are parts of the line
+            if (fits(line.line) == false) { return false; }
+        }
+        return true;
+    }
+
+    static protected boolean fits (String string) {
+        return string.length() < 21845;
+    }
+
+    protected void write (DataOutputStream out) throws IOException {
+        out.writeUTF(this.sourcename);
+        out.writeUTF(this.stamp);
+        out.writeInt(this.lines.size());
+        for (Line line : this.lines) {
+            out.writeInt(line.type);
+            out.writeInt(line.linenbr);
+            out.writeUTF(line.line);
+            writeString(out, line.error);
+            writeString(out, line.name);
+            writeStrings(out, line.members == null ? null : line.members.toArray(new String[line.members.size()]));
+            writeStrings(out, line.includes);
+            writeString(out, line.variants);
+            out.writeInt(line.conditions == null ? -1 : line.conditions.length);
+            if (line.conditions != null) {
+                for (Condition condition : line.conditions) {
+                    writeString(out, condition.kind);
+                    writeString(out, condition.inc == null ? null : condition.inc.regexp);
+                    writeString(out, condition.exc == null ? null : condition.exc.regexp);
+                    writeString(out, condition.error);
+                }
+            }
+        }
+    }
+
+    static protected VariantRules read (DataInputStream in) throws IOException {
+        VariantRules rules = new VariantRules(in.readUTF(), in.readUTF());
+        int count = readCount(in);
+        for (int l=0; l<count; l++) {
+            Line line = new Line();
+            line.type     = in.readInt();
+            line.linenbr  = in.readInt();
+            line.line     = in.readUTF();
+            line.error    = readString(in);
+            line.name     = readString(in);
+            String[] members = readStrings(in);
+            line.members  = (members == null ? null : new HashSet<String>(Arrays.asList(members)));
+            line.includes = readStrings(in);
+            line.variants = readString(in);
+            int conditions = readCount(in);
+            if (conditions >= 0) {
+                line.conditions = new Condition[conditions];
+                for (int c=0; c<conditions; c++) {
+                    Condition condition = new Condition();
+                    condition.kind  = readString(in);
+                    String inc      = readString(in);
+                    String exc      = readString(in);
+                    condition.inc   = (inc == null ? null : new LazyPattern(inc));
+                    condition.exc   = (exc == null ? null : new LazyPattern(exc));
+                    condition.error = readString(in);
+                    line.conditions[c] = condition;
+                }
+            }
+            if (line.type < ERROR || line.type > RULE || (line.type == RULE && line.conditions == null)) {
+                throw new IOException("invalid line type in variant rule store");
+            }
+            rules.lines.add(line);
+        }
+        return rules;
+    }
+
+    /**
+       Reads a count, which is -1 for absent arrays, rejecting implausible
+       values of damaged files before allocating anything.
+     */
+    static protected int readCount (DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < -1 || count > 0xfffff) {
+            throw new IOException("invalid count in variant rule store");
+        }
+        return count;
+    }
+
+    static protected void writeString (DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) { out.writeUTF(string); }
+    }
+
+    static protected String readString (DataInputStream in) throws IOException {
+        return (in.readBoolean() ? in.readUTF() : null);
+    }
+
+    static protected void writeStrings (DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings == null ? -1 : strings.length);
+        if (strings != null) {
+            for (String string : strings) { out.writeUTF(string); }
+        }
+    }
+
+    static protected String[] readStrings (DataInputStream in) throws IOException {
+        int count = readCount(in);
+        if (count < 0) { return null; }
+        String[] strings = new String[count];
+        for (int s=0; s<count; s++) { strings[s] = in.readUTF(); }
+        return strings;
+    }
+}
@@ -0,0 +1,111 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+/**
+   Checks the interpolation of dynamic entries of the form
+   "&#92;u0000Expr:...", see {@link ConfigurationExpression}: references with
+   and without defaults, defaults containing colons, "$$", nested dynamic
+   entries, other directives combined with "Expr", and re-evaluation after
+   a referenced entry is modified.
+ */
+public class Test_ConfigurationExpression extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String PREFIX = "com.sphenon.basics.configuration.test.Expression";
+
+    protected boolean trace = false;
+
+    public Test_ConfigurationExpression (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_ConfigurationExpression (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "ConfigurationExpression";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_ConfigurationExpression(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        set(context, "Host", "example.org");
+        set(context, "Port", "8080");
+
+        String problem;
+
+        if ((problem = check(context, "Plain",        "\u0000Expr:http://${" + PREFIX + ".Host}:${" + PREFIX + ".Port}/", "http://example.org:8080/")) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Default",      "\u0000Expr:${" + PREFIX + ".Missing:fallback}",                      "fallback"               )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Present",      "\u0000Expr:${" + PREFIX + ".Host:fallback}",                         "example.org"            )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "EmptyDefault", "\u0000Expr:[${" + PREFIX + ".Missing:}]",                            "[]"                     )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "NoDefault",    "\u0000Expr:[${" + PREFIX + ".Missing}]",                             "[]"                     )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "ColonDefault", "\u0000Expr:${" + PREFIX + ".Missing:a:b}",                           "a:b"                    )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Dollar",       "\u0000Expr:$${" + PREFIX + ".Host} costs $$5",                       "${" + PREFIX + ".Host} costs $5")) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Literal",      "\u0000Expr:no references",                                           "no references"          )) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Nested",       "\u0000Expr:<${" + PREFIX + ".Plain}>",                               "<http://example.org:8080/>")) != null) { return failure(context, problem); }
+        if ((problem = check(context, "Memo",         "\u0000Memo/Expr:${" + PREFIX + ".Port:0}",                           "8080"                   )) != null) { return failure(context, problem); }
+
+        set(context, "Port", "9090");
+        if ((problem = check(context, "Plain",        null,                                                                  "http://example.org:9090/")) != null) { return failure(context, "after modifying a referenced entry, " + problem); }
+        if ((problem = check(context, "Memo",         null,                                                                  "9090"                   )) != null) { return failure(context, "after modifying a referenced entry, " + problem); }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+
+    protected void set(CallContext context, String key, String value) {
+        RootConfiguration.setPropertyEntry(context, PREFIX + "." + key, value);
+    }
+
+    /**
+       @param expression The dynamic entry to write, or null to check the
+                         existing entry
+       @return null if the entry evaluates as expected, otherwise a
+               description of the difference
+     */
+    protected String check(CallContext context, String key, String expression, String expected) {
+        if (expression != null) { set(context, key, expression); }
+        String result = Configuration.get(context, PREFIX, key, "DEFAULT-WERT");
+        if (trace) { System.out.println( "retrieving '" + key + "': " + result); }
+        return (expected.equals(result) ? null : "expected '" + expected + "' for '" + key + "', got '" + result + "'");
+    }
+
+    protected TestResult failure(CallContext context, String problem) {
+        return new TestResult_ExceptionRaised(context, new Throwable(problem));
+    }
+}
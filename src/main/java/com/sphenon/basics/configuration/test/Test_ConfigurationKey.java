@@ -0,0 +1,124 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+/**
+   Checks that key handles (see Configuration.key) see entries written via
+   RootConfiguration.setPropertyEntry after the handle resolved it's entry
+   the last time, i.e. that cached resolutions are discarded with each new
+   snapshot, for the string and the typed accessors, and also when other
+   entries are written in between.
+ */
+public class Test_ConfigurationKey extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String PREFIX = "com.sphenon.basics.configuration.test.Key";
+
+    protected boolean trace = false;
+
+    public Test_ConfigurationKey (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_ConfigurationKey (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "ConfigurationKey";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_ConfigurationKey(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        ConfigurationKey text   = Configuration.key(context, PREFIX, "Text");
+        ConfigurationKey number = Configuration.key(context, PREFIX, "Number");
+        ConfigurationKey flag   = Configuration.key(context, PREFIX, "Flag");
+
+        String  result;
+        int     int_result;
+        boolean bool_result;
+
+        result = text.get(context, "DEFAULT-WERT");
+        if (trace) { System.out.println( "retrieving missing entry 'Text': " + result); }
+        if ( ! "DEFAULT-WERT".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'DEFAULT-WERT', got '" + result + "'")); }
+
+        int_result = number.get(context, -1);
+        if (int_result != -1) { return new TestResult_ExceptionRaised(context, new Throwable("expected '-1', got '" + int_result + "'")); }
+
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Text", "first");
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Number", "42");
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Flag", "true");
+
+        result = text.get(context, "DEFAULT-WERT");
+        if (trace) { System.out.println( "retrieving written entry 'Text': " + result); }
+        if ( ! "first".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'first', got '" + result + "'")); }
+
+        int_result = number.get(context, -1);
+        if (int_result != 42) { return new TestResult_ExceptionRaised(context, new Throwable("expected '42', got '" + int_result + "'")); }
+
+        bool_result = flag.get(context, false);
+        if (bool_result != true) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'true', got '" + bool_result + "'")); }
+
+        // unrelated writes publish new snapshots, the handles must still see their entries
+        for (int e=0; e<100; e++) {
+            RootConfiguration.setPropertyEntry(context, PREFIX + ".Other" + e, "other");
+        }
+        result = text.get(context, "DEFAULT-WERT");
+        if ( ! "first".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'first' after unrelated writes, got '" + result + "'")); }
+
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Text", "second");
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Number", "4711");
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Flag", "false");
+
+        result = text.get(context, "DEFAULT-WERT");
+        if (trace) { System.out.println( "retrieving overwritten entry 'Text': " + result); }
+        if ( ! "second".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'second', got '" + result + "'")); }
+
+        int_result = number.get(context, -1);
+        if (int_result != 4711) { return new TestResult_ExceptionRaised(context, new Throwable("expected '4711', got '" + int_result + "'")); }
+
+        bool_result = flag.get(context, true);
+        if (bool_result != false) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'false', got '" + bool_result + "'")); }
+
+        ConfigurationKey late = Configuration.key(context, PREFIX, "Text");
+        result = late.get(context, "DEFAULT-WERT");
+        if ( ! "second".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'second' via a new handle, got '" + result + "'")); }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.io.*;
+
+/**
+   Checks the key level diffs of RootConfiguration.reload: after a
+   property file in a configuration folder is created, modified or
+   deleted, exactly the entries whose values changed are reported and
+   visible, and a reload without modifications reports nothing. An
+   unmodified dynamic entry whose result has been cached is not reported.
+
+   The folder must have been added via
+   RootConfiguration.addConfigurationFolder before the configuration was
+   initialised, main does so with a temporary folder.
+ */
+public class Test_ConfigurationReload extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String PREFIX = "com.sphenon.basics.configuration.test.Reload";
+
+    // replaced by it's result once read, which must not count as a difference on reload
+    static protected final String CACHED = "E=\\u0000Cache/Expr:cached";
+
+    protected boolean trace = false;
+    protected String  folder;
+    protected long    modification;
+
+    public Test_ConfigurationReload (CallContext context, String folder) {
+        this.trace  = false;
+        this.folder = folder;
+    }
+
+    public Test_ConfigurationReload (CallContext context, String folder, boolean trace) {
+        this.trace  = trace;
+        this.folder = folder;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "ConfigurationReload";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        String folder = (args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir") + "/Test_ConfigurationReload-" + System.currentTimeMillis());
+        new File(folder).mkdirs();
+        RootConfiguration.addConfigurationFolder(folder);
+
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_ConfigurationReload(context, folder, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        File file = new File(this.folder, ".properties");
+        this.modification = System.currentTimeMillis();
+
+        try {
+            write(file, "A=1", "B=2", "C=3", CACHED);
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        }
+        RootConfiguration.reload(context);
+        String problem = check(context, "A", "1", "B", "2", "C", "3", "D", null, "E", "cached");
+        if (problem != null) { return new TestResult_ExceptionRaised(context, new Throwable("after creating the file, " + problem + " (was folder '" + this.folder + "' added before initialisation?)")); }
+
+        try {
+            write(file, "A=1", "B=20", "D=4", CACHED);
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        }
+        Set<String> changed = RootConfiguration.reload(context);
+        if (trace) { System.out.println( "modified file, changed: " + ours(changed)); }
+        problem = compare(ours(changed), "B", "C", "D");
+        if (problem == null) { problem = check(context, "A", "1", "B", "20", "C", null, "D", "4", "E", "cached"); }
+        if (problem != null) { return new TestResult_ExceptionRaised(context, new Throwable("after modifying the file, " + problem)); }
+
+        changed = RootConfiguration.reload(context);
+        if (trace) { System.out.println( "unmodified file, changed: " + ours(changed)); }
+        problem = compare(ours(changed));
+        if (problem != null) { return new TestResult_ExceptionRaised(context, new Throwable("without modifications, " + problem)); }
+
+        if (file.delete() == false) {
+            return new TestResult_ExceptionRaised(context, new Throwable("could not delete '" + file.getPath() + "'"));
+        }
+        changed = RootConfiguration.reload(context);
+        if (trace) { System.out.println( "deleted file, changed: " + ours(changed)); }
+        problem = compare(ours(changed), "A", "B", "D", "E");
+        if (problem == null) { problem = check(context, "A", null, "B", null, "C", null, "D", null, "E", null); }
+        if (problem != null) { return new TestResult_ExceptionRaised(context, new Throwable("after deleting the file, " + problem)); }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+
+    /**
+       Writes the file and advances it's modification time, so that the
+       modification is detected even within the timestamp resolution.
+     */
+    protected void write(File file, String... lines) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            for (String line : lines) {
+                writer.write(PREFIX + "." + line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        this.modification += 2000;
+        file.setLastModified(this.modification);
+    }
+
+    protected Set<String> ours(Set<String> changed) {
+        Set<String> result = new TreeSet<String>();
+        for (String key : changed) {
+            if (key.startsWith(PREFIX + ".") && key.indexOf('@') == -1) {
+                result.add(key.substring(PREFIX.length() + 1));
+            }
+        }
+        return result;
+    }
+
+    protected String compare(Set<String> changed, String... expected) {
+        Set<String> expected_set = new TreeSet<String>(Arrays.asList(expected));
+        return (expected_set.equals(changed) ? null : "expected changed keys " + expected_set + ", got " + changed);
+    }
+
+    protected String check(CallContext context, String... expected) {
+        for (int e=0; e<expected.length; e+=2) {
+            String result = RootConfiguration.getPropertyEntry(context, PREFIX + "." + expected[e]);
+            if (expected[e+1] == null ? result != null : expected[e+1].equals(result) == false) {
+                return "expected '" + expected[e+1] + "' for '" + expected[e] + "', got '" + result + "'";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,198 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+/**
+   Checks that default property resources kept off-heap, see {@link
+   OffHeapPropertyStore}, take precedence as if they had been merged into
+   the default property table: large and small resources are loaded
+   alternately and the visible entries are compared with a serial merge
+   of the same resources. Finally, a large resource is loaded again, which
+   maps the existing store file instead of rewriting it.
+
+   The resources are placed next to a copy of an anchor class in a
+   temporary folder and loaded via a separate class loader; the off-heap
+   folder is set within a local ConfigurationContext only.
+ */
+public class Test_OffHeapLayer extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String PREFIX    = "com.sphenon.basics.configuration.test.OffHeapLayer";
+    static protected final int    KEYS      = 500;
+    static protected final int    THRESHOLD = 100;
+
+    static public class Anchor {
+    }
+
+    protected boolean trace = false;
+
+    public Test_OffHeapLayer (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_OffHeapLayer (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "OffHeapLayer";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_OffHeapLayer(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        File base    = new File(System.getProperty("java.io.tmpdir"), "Test_OffHeapLayer-" + System.currentTimeMillis());
+        File classes = new File(base, "classes");
+        File offheap = new File(base, "offheap");
+        File folder  = new File(classes, Anchor.class.getPackage().getName().replace('.', '/'));
+        folder.mkdirs();
+
+        Random     random = new Random(4711);
+        Properties serial = new Properties();
+        Class      anchor;
+
+        try {
+            String class_file = Anchor.class.getName().substring(Anchor.class.getName().lastIndexOf('.') + 1) + ".class";
+            InputStream in = Anchor.class.getResourceAsStream(class_file);
+            OutputStream out = new FileOutputStream(new File(folder, class_file));
+            try {
+                byte[] buffer = new byte[4096];
+                int    length;
+                while ((length = in.read(buffer)) != -1) { out.write(buffer, 0, length); }
+            } finally {
+                in.close();
+                out.close();
+            }
+            anchor = new URLClassLoader(new URL[] { classes.toURI().toURL() }, null).loadClass(Anchor.class.getName());
+
+            write(new File(folder, "OffHeapLayer-a.properties"), random, "a", KEYS);
+            write(new File(folder, "OffHeapLayer-b.properties"), random, "b", THRESHOLD / 4);
+            write(new File(folder, "OffHeapLayer-c.properties"), random, "c", KEYS / 2);
+            write(new File(folder, "OffHeapLayer-d.properties"), random, "d", THRESHOLD / 4);
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        } catch (ClassNotFoundException cnfe) {
+            return new TestResult_ExceptionRaised(context, cnfe);
+        }
+
+        Context c = Context.create(context);
+        ConfigurationContext cc = ConfigurationContext.create(c);
+        cc.instantiateLocalProperties(c);
+        cc.setPropertyEntry(c, "com.sphenon.basics.configuration.OffHeapFolder", offheap.getPath());
+        cc.setPropertyEntry(c, "com.sphenon.basics.configuration.OffHeapThreshold", Integer.toString(THRESHOLD));
+
+        String problem;
+        try {
+            for (String name : new String[] { "a", "b", "c", "d" }) {
+                load(c, anchor, new File(folder, "OffHeapLayer-" + name + ".properties"), serial);
+                if ((problem = compare(context, serial)) != null) {
+                    return new TestResult_ExceptionRaised(context, new Throwable("after loading '" + name + "', " + problem));
+                }
+            }
+
+            File[] stores = offheap.listFiles();
+            if (stores == null || stores.length != 2) {
+                return new TestResult_ExceptionRaised(context, new Throwable("expected 2 off-heap store files in '" + offheap.getPath() + "', got " + (stores == null ? 0 : stores.length)));
+            }
+            for (File store : stores) { store.setLastModified(1000000000L); }
+
+            load(c, anchor, new File(folder, "OffHeapLayer-a.properties"), serial);
+            if ((problem = compare(context, serial)) != null) {
+                return new TestResult_ExceptionRaised(context, new Throwable("after loading 'a' again, " + problem));
+            }
+            for (File store : stores) {
+                if (store.lastModified() != 1000000000L) {
+                    return new TestResult_ExceptionRaised(context, new Throwable("expected up to date store file '" + store.getName() + "' to be mapped, but it was rewritten"));
+                }
+            }
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+
+    /**
+       Writes a resource with the given number of entries from a shared key
+       range; each value names the resource.
+     */
+    protected void write(File file, Random random, String name, int count) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            for (int e=0; e<count; e++) {
+                writer.write(PREFIX + ".Key" + random.nextInt(KEYS) + "=" + name + "/" + e + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected void load(Context context, Class anchor, File file, Properties serial) throws IOException {
+        RootConfiguration.loadDefaultProperties(context, anchor, file.getName());
+        InputStream in = new FileInputStream(file);
+        try {
+            serial.load(in);
+        } finally {
+            in.close();
+        }
+        if (trace) { System.out.println( "loaded '" + file.getName() + "', " + serial.size() + " entries" ); }
+    }
+
+    /**
+       @return null if all entries below PREFIX are as in the serial merge,
+               otherwise a description of the difference
+     */
+    protected String compare(CallContext context, Properties serial) {
+        for (int k=0; k<KEYS; k++) {
+            String key      = PREFIX + ".Key" + k;
+            String expected = serial.getProperty(key);
+            String value    = RootConfiguration.getPropertyEntry(context, key);
+            if (expected == null ? value != null : expected.equals(value) == false) {
+                return "expected '" + expected + "' for '" + key + "', got '" + value + "'";
+            }
+        }
+        int count = RootConfiguration.getPropertyKeys(context, PREFIX).size();
+        if (count != serial.size()) {
+            return "expected " + serial.size() + " keys below '" + PREFIX + "', got " + count;
+        }
+        return null;
+    }
+}
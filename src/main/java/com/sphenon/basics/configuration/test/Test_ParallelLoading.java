@@ -0,0 +1,155 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.io.*;
+
+/**
+   Checks that property sources read concurrently via
+   {@link PropertySource#loadAll} and merged in list order yield the same
+   entries as reading and merging them one after the other with
+   java.util.Properties. The sources overlap heavily and differ in size,
+   so that they complete in varying order; some of them do not exist.
+ */
+public class Test_ParallelLoading extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final int SOURCES = 24;
+    static protected final int ROUNDS  = 20;
+    static protected final int KEYS    = 200;
+
+    protected boolean trace = false;
+
+    public Test_ParallelLoading (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_ParallelLoading (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "ParallelLoading";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_ParallelLoading(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        File folder = new File(System.getProperty("java.io.tmpdir"), "Test_ParallelLoading-" + System.currentTimeMillis());
+        folder.mkdirs();
+
+        Random random = new Random(4711);
+
+        try {
+            for (int round=0; round<ROUNDS; round++) {
+                String name = "round" + round;
+                List<PropertySource> sources = new ArrayList<PropertySource>();
+                List<File>           files   = new ArrayList<File>();
+                for (int s=0; s<SOURCES; s++) {
+                    File file = new File(folder, name + "-" + s + ".properties");
+                    if (random.nextInt(6) != 0) {
+                        write(file, random, s);
+                    }
+                    files.add(file);
+                    sources.add(new PropertySource(context, null, folder.getPath(), file.getName()));
+                }
+                // the folder was listed in the previous round, see FolderListing
+                FolderListing.invalidateAll();
+
+                Properties serial = new Properties();
+                for (File file : files) {
+                    if (file.exists() == false) { continue; }
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        serial.load(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+
+                List<Properties> loaded = PropertySource.loadAll(context, sources);
+                if (loaded.size() != SOURCES) {
+                    return new TestResult_ExceptionRaised(context, new Throwable("expected " + SOURCES + " results in round " + round + ", got " + loaded.size()));
+                }
+                Properties merged = new Properties();
+                for (int s=0; s<SOURCES; s++) {
+                    Properties entries = loaded.get(s);
+                    if ((entries == null) != (files.get(s).exists() == false)) {
+                        return new TestResult_ExceptionRaised(context, new Throwable("expected " + (entries == null ? "entries" : "null") + " for missing or present source '" + files.get(s).getName() + "'"));
+                    }
+                    if (entries != null) { merged.putAll(entries); }
+                }
+
+                if (merged.equals(serial) == false) {
+                    for (String key : serial.stringPropertyNames()) {
+                        if (serial.getProperty(key).equals(merged.getProperty(key)) == false) {
+                            return new TestResult_ExceptionRaised(context, new Throwable("expected '" + serial.getProperty(key) + "' for '" + key + "' in round " + round + ", got '" + merged.getProperty(key) + "'"));
+                        }
+                    }
+                    return new TestResult_ExceptionRaised(context, new Throwable("expected " + serial.size() + " entries in round " + round + ", got " + merged.size()));
+                }
+                if (trace) { System.out.println( "round " + round + ": " + merged.size() + " entries" ); }
+
+                for (File file : files) { file.delete(); }
+            }
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        } finally {
+            folder.delete();
+        }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+
+    /**
+       Writes a source with a random number of entries from a shared key
+       range; each value names the source, so that the winning source is
+       visible in a difference.
+     */
+    protected void write(File file, Random random, int source) throws IOException {
+        int count = (random.nextInt(4) == 0 ? 5000 + random.nextInt(5000) : 1 + random.nextInt(50));
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            for (int e=0; e<count; e++) {
+                writer.write("key" + random.nextInt(KEYS) + "=source" + source + "/" + e + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
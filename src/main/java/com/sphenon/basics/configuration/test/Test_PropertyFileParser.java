@@ -0,0 +1,134 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+
+/**
+   Differential check of {@link PropertyFileParser} against
+   java.util.Properties.load of the running JVM: random inputs built from
+   the characters significant to the property file syntax (separators,
+   comment markers, escapes, line terminators, continuations) are parsed
+   by both, the resulting tables respectively the failures on malformed
+   &#92;uXXXX escapes must be equal.
+ */
+public class Test_PropertyFileParser extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String ALPHABET = "ab= :#!\\\\\t\f\r\n\n\rutnf0A9 \u00e9\u00ff";
+
+    protected boolean trace = false;
+    protected int     cases = 20000;
+
+    public Test_PropertyFileParser (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_PropertyFileParser (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "PropertyFileParser";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_PropertyFileParser(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        Random random = new Random(4711);
+        for (int c=0; c<this.cases; c++) {
+            byte[] input = generate(random);
+            String expected = parseWithProperties(input);
+            String got      = parseWithParser(input, (c % 2) == 0);
+            if (expected.equals(got) == false) {
+                if (trace) { System.out.println( "input: '" + describe(input) + "'"); }
+                return new TestResult_ExceptionRaised(context, new Throwable("case " + c + ", input '" + describe(input) + "': expected " + expected + ", got " + got));
+            }
+        }
+        if (trace) { System.out.println( "checked " + this.cases + " inputs" ); }
+        return TestResult.OK;
+    }
+
+    protected byte[] generate(Random random) {
+        int length = random.nextInt(random.nextInt(8) == 0 ? 200 : 24);
+        byte[] input = new byte[length];
+        for (int i=0; i<length; i++) {
+            input[i] = (byte) ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return input;
+    }
+
+    protected String parseWithProperties(byte[] input) {
+        Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(input));
+        } catch (IllegalArgumentException iae) {
+            return "malformed";
+        } catch (IOException ioe) {
+            return "failed " + ioe;
+        }
+        return new TreeMap<Object,Object>(properties).toString();
+    }
+
+    protected String parseWithParser(byte[] input, boolean stream) {
+        Map<Object,Object> entries = new HashMap<Object,Object>();
+        try {
+            if (stream) {
+                PropertyFileParser.parse(new ByteArrayInputStream(input), entries);
+            } else {
+                PropertyFileParser.parse(ByteBuffer.wrap(input), entries);
+            }
+        } catch (IllegalArgumentException iae) {
+            return "malformed";
+        } catch (IOException ioe) {
+            return "failed " + ioe;
+        }
+        return new TreeMap<Object,Object>(entries).toString();
+    }
+
+    protected String describe(byte[] input) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : input) {
+            char c = (char) (b & 0xff);
+            if      (c == '\n') { sb.append("\\n"); }
+            else if (c == '\r') { sb.append("\\r"); }
+            else if (c == '\t') { sb.append("\\t"); }
+            else if (c == '\f') { sb.append("\\f"); }
+            else                { sb.append(c); }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+
+/**
+   Checks that entries written via RootConfiguration.setPropertyEntry are
+   visible to all subsequent reads of the published snapshot, i.e. to
+   direct lookups, parent searches and key enumeration, also when many
+   single entries are written one after the other (each deriving a new
+   snapshot from the previous one) and when entries are overwritten.
+ */
+public class Test_PropertySnapshot extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String PREFIX = "com.sphenon.basics.configuration.test.Snapshot";
+
+    protected boolean trace = false;
+    protected int     entries = 2000;
+
+    public Test_PropertySnapshot (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_PropertySnapshot (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "PropertySnapshot";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_PropertySnapshot(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        String result;
+
+        for (int e=0; e<this.entries; e++) {
+            String key = PREFIX + ".Entry" + e;
+            RootConfiguration.setPropertyEntry(context, key, "value" + e);
+            result = RootConfiguration.getPropertyEntry(context, key);
+            if ( ! ("value" + e).equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'value" + e + "' for '" + key + "' directly after writing it, got '" + result + "'")); }
+        }
+        if (trace) { System.out.println( "wrote " + this.entries + " entries" ); }
+
+        for (int e=0; e<this.entries; e++) {
+            String key = PREFIX + ".Entry" + e;
+            result = RootConfiguration.getPropertyEntry(context, key);
+            if ( ! ("value" + e).equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'value" + e + "' for '" + key + "', got '" + result + "'")); }
+        }
+
+        List<String> keys = RootConfiguration.getPropertyKeys(context, PREFIX);
+        if (keys.size() != this.entries) { return new TestResult_ExceptionRaised(context, new Throwable("expected " + this.entries + " keys below '" + PREFIX + "', got " + keys.size())); }
+
+        for (int e=0; e<this.entries; e+=7) {
+            RootConfiguration.setPropertyEntry(context, PREFIX + ".Entry" + e, "modified" + e);
+        }
+        for (int e=0; e<this.entries; e++) {
+            String key = PREFIX + ".Entry" + e;
+            String expected = (e % 7 == 0 ? "modified" : "value") + e;
+            result = RootConfiguration.getPropertyEntry(context, key);
+            if ( ! expected.equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected '" + expected + "' for '" + key + "' after overwriting, got '" + result + "'")); }
+        }
+        keys = RootConfiguration.getPropertyKeys(context, PREFIX);
+        if (keys.size() != this.entries) { return new TestResult_ExceptionRaised(context, new Throwable("expected " + this.entries + " keys below '" + PREFIX + "' after overwriting, got " + keys.size())); }
+        if (trace) { System.out.println( "overwrote every 7th entry" ); }
+
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Parent", "parent");
+        result = Configuration.get(context, PREFIX + ".Child.GrandChild", "Parent", "DEFAULT-WERT", true);
+        if ( ! "parent".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'parent' via parent search, got '" + result + "'")); }
+
+        RootConfiguration.setPropertyEntry(context, PREFIX + ".Child.Parent", "child");
+        result = Configuration.get(context, PREFIX + ".Child.GrandChild", "Parent", "DEFAULT-WERT", true);
+        if ( ! "child".equals(result)) { return new TestResult_ExceptionRaised(context, new Throwable("expected 'child' via parent search after adding a closer entry, got '" + result + "'")); }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+}
@@ -0,0 +1,214 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.io.*;
+
+/**
+   Checks that a memoized variant sequence, see {@link VariantResolution},
+   is reused while the probed variant files are unchanged and discarded as
+   soon as one of them is modified, created or deleted. Damaged store
+   files are treated as if there were no stored result and deleted.
+
+   The memo is kept in a temporary store file while the test runs, the
+   store configured otherwise is not touched.
+ */
+public class Test_VariantResolution extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final String FINGERPRINT = "Test_VariantResolution";
+
+    protected boolean trace = false;
+    protected long    modification;
+
+    public Test_VariantResolution (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_VariantResolution (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "VariantResolution";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_VariantResolution(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        File folder = new File(System.getProperty("java.io.tmpdir"), "Test_VariantResolution-" + System.currentTimeMillis());
+        folder.mkdirs();
+        File existing = new File(folder, "existing.variants");
+        File missing  = new File(folder, "missing.variants");
+        File store    = new File(folder, "variants.store");
+        String previous_store = VariantResolution.setStorePath(store.getPath());
+        this.modification = System.currentTimeMillis();
+
+        List<String> variants = new ArrayList<String>();
+        variants.add("base");
+        variants.add("v1");
+
+        String problem;
+        try {
+            write(existing, "os:.*=v1");
+
+            record(context, variants, existing, missing);
+            if ((problem = check(context, FINGERPRINT, variants)) != null) { return failure(context, "after storing, " + problem); }
+            if ((problem = check(context, FINGERPRINT + "-other", null)) != null) { return failure(context, "with another fingerprint, " + problem); }
+
+            write(existing, "os:.*=v1:v2");
+            if ((problem = check(context, FINGERPRINT, null)) != null) { return failure(context, "after modifying a probed file, " + problem); }
+
+            record(context, variants, existing, missing);
+            if ((problem = check(context, FINGERPRINT, variants)) != null) { return failure(context, "after storing again, " + problem); }
+
+            write(missing, "os:.*=v3");
+            if ((problem = check(context, FINGERPRINT, null)) != null) { return failure(context, "after creating a probed file, " + problem); }
+
+            record(context, variants, existing, missing);
+            if ((problem = check(context, FINGERPRINT, variants)) != null) { return failure(context, "after storing again, " + problem); }
+
+            existing.delete();
+            if ((problem = check(context, FINGERPRINT, null)) != null) { return failure(context, "after deleting a probed file, " + problem); }
+
+            record(context, variants, existing, missing);
+            byte[] valid = read(store);
+            for (int count : new int[] { -5, Integer.MAX_VALUE }) {
+                writeDamaged(store, count);
+                if ((problem = check(context, FINGERPRINT, null)) != null) { return failure(context, "with list count " + count + " in the store, " + problem); }
+                if (store.exists()) { return failure(context, "expected store with list count " + count + " to be deleted"); }
+            }
+            for (int length : new int[] { 3, valid.length / 2, valid.length - 1 }) {
+                OutputStream out = new FileOutputStream(store);
+                try {
+                    out.write(valid, 0, length);
+                } finally {
+                    out.close();
+                }
+                if ((problem = check(context, FINGERPRINT, null)) != null) { return failure(context, "with store truncated to " + length + " bytes, " + problem); }
+            }
+        } catch (IOException ioe) {
+            return new TestResult_ExceptionRaised(context, ioe);
+        } finally {
+            VariantResolution.setStorePath(previous_store);
+            existing.delete();
+            missing.delete();
+            store.delete();
+            folder.delete();
+        }
+
+        if (trace) { System.out.println( "done." ); }
+
+        return TestResult.OK;
+    }
+
+    /**
+       Records probes of the given files as RootConfiguration does while
+       resolving the variants and stores the result.
+     */
+    protected void record(CallContext context, List<String> variants, File... files) {
+        VariantResolution.startRecording(context);
+        for (File file : files) {
+            VariantResolution.probe("F" + file.getPath(), file.exists() ? ConfigurationFiles.stamp(file, file.getPath()) : VariantResolution.ABSENT);
+        }
+        VariantResolution.store(context, FINGERPRINT, variants);
+    }
+
+    /**
+       @param expected The variants expected, or null if the memo is
+                       expected to be discarded
+       @return null if the lookup yields the expected result, otherwise a
+               description of the difference
+     */
+    protected String check(CallContext context, String fingerprint, List<String> expected) {
+        // folders are listed once for a while, see FolderListing
+        FolderListing.invalidateAll();
+        List<String> variants = VariantResolution.lookup(context, fingerprint);
+        if (trace) { System.out.println( "lookup '" + fingerprint + "': " + variants); }
+        if (expected == null ? variants != null : expected.equals(variants) == false) {
+            return "expected " + (expected == null ? "no variants" : expected.toString()) + ", got " + variants;
+        }
+        return null;
+    }
+
+    /**
+       Writes a store file whose variant list has the given count, but no
+       entries, see VariantResolution.store.
+     */
+    protected void writeDamaged(File store, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(store));
+        try {
+            out.writeInt(0x53565231);
+            out.writeUTF(FINGERPRINT);
+            out.writeBoolean(false);
+            out.writeInt(count);
+        } finally {
+            out.close();
+        }
+    }
+
+    protected byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+       Writes the file and advances it's modification time, so that the
+       modification is detected even within the timestamp resolution.
+     */
+    protected void write(File file, String... lines) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        this.modification += 2000;
+        file.setLastModified(this.modification);
+    }
+
+    protected TestResult failure(CallContext context, String problem) {
+        return new TestResult_ExceptionRaised(context, new Throwable(problem));
+    }
+}
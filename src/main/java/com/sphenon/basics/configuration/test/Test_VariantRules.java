@@ -0,0 +1,354 @@
+package com.sphenon.basics.configuration.test;
+
+/****************************************************************************
+  Copyright 2001-2018 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.configuration.*;
+import com.sphenon.basics.testing.TestRun;
+import com.sphenon.basics.testing.TestResult;
+import com.sphenon.basics.testing.TestResult_ExceptionRaised;
+
+import java.util.*;
+import java.util.regex.*;
+import java.io.*;
+
+/**
+   Checks that compiled variant files, see {@link VariantRules}, yield the
+   same variant sequences, afterwards includes and syntax errors as the
+   line by line interpreter they replaced, which is kept here as reference.
+
+   Random variant files are generated from lines of all kinds. Rules on
+   user, os, osversion and javaversion use the actual values. Rules on
+   host, configuration, ui, db and variants use patterns which match all
+   or no values, and class definitions use members which do not match, so
+   that the outcome does not depend on settings not visible here.
+   Immediate includes are not generated, since they read further files.
+ */
+public class Test_VariantRules extends com.sphenon.basics.testing.classes.TestBase {
+
+    static protected final int FILES = 3000;
+
+    protected boolean trace = false;
+
+    public Test_VariantRules (CallContext context) {
+        this.trace = false;
+    }
+
+    public Test_VariantRules (CallContext context, boolean trace) {
+        this.trace = trace;
+    }
+
+    public String getId (CallContext context) {
+        if (this.id == null) {
+            this.id = "VariantRules";
+        }
+        return this.id;
+    }
+
+    static public void main(String[] args) {
+        Context context = com.sphenon.basics.context.classes.RootContext.getRootContext ();
+        TestRun test_run = new com.sphenon.basics.testing.classes.ClassTestRun(context);
+        TestResult result = (new Test_VariantRules(context, true)).perform(context, test_run);
+        System.err.println(result);
+        if (result  == TestResult.OK) {
+            System.err.println("TEST OK.");
+        } else {
+            System.err.println("*** TEST FAILED ***");
+        }
+    }
+
+    public TestResult perform(CallContext context, TestRun test_run) {
+        RootConfiguration.initialise(context);
+
+        Map<String,String> values = new HashMap<String,String>();
+        values.put("user",        System.getProperty("user.name", "?"));
+        values.put("os",          System.getProperty("os.name", "?"));
+        values.put("osversion",   System.getProperty("os.version", "?"));
+        values.put("javaversion", System.getProperty("java.specification.version", "?"));
+
+        Random random = new Random(4711);
+        int failures = 0;
+
+        for (int f=0; f<FILES; f++) {
+            String text = generateFile(random, values);
+
+            List<String>  expected_variants   = initialVariants();
+            Set<String>   expected_duplicates = new HashSet<String>(expected_variants);
+            Queue<String> expected_cvariants  = new LinkedList<String>();
+            Set<String>   expected_cduplicates = new HashSet<String>();
+            String expected_error = null;
+            try {
+                interpret(text, values, expected_variants, expected_duplicates, expected_cvariants, expected_cduplicates);
+            } catch (IllegalStateException ise) {
+                expected_error = ise.getMessage();
+            }
+
+            List<String>  variants   = initialVariants();
+            Set<String>   duplicates = new HashSet<String>(variants);
+            Queue<String> cvariants  = new LinkedList<String>();
+            Set<String>   cduplicates = new HashSet<String>();
+            Throwable error = null;
+            try {
+                VariantRules.compile(context, new StringReader(text), "Test_VariantRules", null).evaluate(context, variants, duplicates, cvariants, cduplicates);
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            String problem = null;
+            if ((expected_error == null) != (error == null)) {
+                problem = (expected_error == null ? "expected no error, got " + error : "expected error '" + expected_error + "', got none");
+            } else if (expected_variants.equals(variants) == false) {
+                problem = "expected variants " + expected_variants + ", got " + variants;
+            } else if (new ArrayList<String>(expected_cvariants).equals(new ArrayList<String>(cvariants)) == false) {
+                problem = "expected includes " + expected_cvariants + ", got " + cvariants;
+            }
+            if (problem != null) {
+                return new TestResult_ExceptionRaised(context, new Throwable(problem + " for file:\n" + text));
+            }
+            if (error != null) { failures++; }
+        }
+
+        if (trace) { System.out.println( FILES + " files compared, " + failures + " of them erroneous" ); }
+
+        return TestResult.OK;
+    }
+
+    protected List<String> initialVariants() {
+        List<String> variants = new ArrayList<String>();
+        variants.add("base");
+        return variants;
+    }
+
+    static protected final String[] ALL_OR_NONE = { ".*", "x^" };
+
+    protected String pick(Random random, String... choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    protected String generatePattern(Random random, Map<String,String> values, String kind) {
+        if (kind.equals("hostclass") || kind.equals("userclass")) {
+            return "x^";
+        }
+        String value = values.get(kind);
+        if (value == null || random.nextInt(3) == 0) {
+            return pick(random, ALL_OR_NONE);
+        }
+        return pick(random, Pattern.quote(value), Pattern.quote(value) + ".*", "x" + Pattern.quote(value));
+    }
+
+    protected String generateCondition(Random random, Map<String,String> values) {
+        String kind = pick(random, "host", "hostclass", "user", "userclass", "os", "osversion", "javaversion", "configuration", "ui", "db", "variants", "unknown");
+        String condition = kind + ":" + generatePattern(random, values, kind);
+        if (random.nextBoolean()) {
+            condition += ":" + (kind.equals("hostclass") || kind.equals("userclass") ? pick(random, ALL_OR_NONE) : generatePattern(random, values, kind));
+        }
+        return condition;
+    }
+
+    protected String generateLine(Random random, Map<String,String> values) {
+        switch (random.nextInt(60)) {
+            case 0:  return pick(random, "", "   ", "# comment", "  # a:b=c");
+            case 1:  return "@hostclass:" + pick(random, "web", "db", "web", "db", "") + "=" + pick(random, "no-such-host.invalid", "no-such-host.invalid,,other.invalid", "");
+            case 2:  return "@userclass:" + pick(random, "admin", "admin", "admin", "") + "=" + pick(random, "no such user", ",no such user,");
+            case 3:  return "@include.afterwards=" + pick(random, "inc1", "inc1,,inc2", "inc2,inc1", "");
+            case 4:  return pick(random, "a=b=c", "novariant", "host=v1", ":.*=v1", "host:.*:.*:.*=v1", "host:.*,os=v1", "=v1");
+        }
+        StringBuilder line = new StringBuilder();
+        int conditions = random.nextInt(4);
+        for (int c=0; c<conditions; c++) {
+            if (c != 0 || random.nextInt(8) == 0) { line.append(","); }
+            line.append(generateCondition(random, values));
+        }
+        line.append("=");
+        int variants = random.nextInt(4);
+        for (int v=0; v<variants; v++) {
+            if (v != 0) { line.append(pick(random, ":", "::")); }
+            line.append("v").append(random.nextInt(10));
+        }
+        return line.toString();
+    }
+
+    protected String generateFile(Random random, Map<String,String> values) {
+        StringBuilder text = new StringBuilder();
+        int lines = 1 + random.nextInt(12);
+        for (int l=0; l<lines; l++) {
+            text.append(generateLine(random, values)).append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+       The variant file interpreter as it was before variant files were
+       compiled, see RootConfiguration.parseVariantFile. Settings not
+       visible here are represented by values which the generated patterns
+       treat like any other, errors are reported as IllegalStateException.
+     */
+    protected void interpret(String text, Map<String,String> values, List<String> variants, Set<String> duplicates, Queue<String> cvariants, Set<String> cduplicates) {
+        String host                           = "?";
+        String configuration_name             = "";
+        String configuration_ui_name          = "";
+        String configuration_db_name          = "";
+        Vector<String> hostclasses            = null;
+        Vector<String> userclasses            = null;
+
+        String user        = values.get("user");
+        String os          = values.get("os");
+        String osversion   = values.get("osversion");
+        String javaversion = values.get("javaversion");
+
+        int linenbr = 0;
+        lines: for (String line : text.split("\n")) {
+            linenbr++;
+            if (line.matches("^\\s*$")) { continue lines; }
+            if (line.matches("^\\s*#.*")) { continue lines; }
+            String[] keyval = line.split("=",-1);
+            if (keyval == null || keyval.length != 2) {
+                throw new IllegalStateException("line " + linenbr + ", expected exatly one '=' separator");
+            }
+            if (keyval[0].startsWith("@hostclass:")) {
+                String host_class = keyval[0].substring(11);
+                if (host_class.isEmpty()) {
+                    throw new IllegalStateException("line " + linenbr + ", host class is empty");
+                }
+                for (String host_entry : keyval[1].split(",")) {
+                    if (host_entry != null && host_entry.isEmpty() == false) {
+                        if (host_entry.equals(host)) {
+                            if (hostclasses == null) {
+                                hostclasses = new Vector<String>();
+                            }
+                            hostclasses.add(host_class);
+                        }
+                    }
+                }
+                continue lines;
+            }
+            if (keyval[0].startsWith("@userclass:")) {
+                String user_class = keyval[0].substring(11);
+                if (user_class.isEmpty()) {
+                    throw new IllegalStateException("line " + linenbr + ", user class is empty");
+                }
+                for (String user_entry : keyval[1].split(",")) {
+                    if (user_entry != null && user_entry.isEmpty() == false) {
+                        if (user_entry.equals(user)) {
+                            if (userclasses == null) {
+                                userclasses = new Vector<String>();
+                            }
+                            userclasses.add(user_class);
+                        }
+                    }
+                }
+                continue lines;
+            }
+            if (keyval[0].equals("@include.afterwards")) {
+                for (String include : keyval[1].split(",")) {
+                    if (include != null && include.isEmpty() == false) {
+                        if (cduplicates.contains(include) == false) {
+                            cvariants.add(include);
+                            cduplicates.add(include);
+                        }
+                    }
+                }
+                continue lines;
+            }
+            String[] keys = keyval[0].split(",",-1);
+            for (int i=0; i<keys.length; i++) {
+                if (keys[i] != null && keys[i].length() != 0) {
+                    String[] rule = keys[i].split(":",-1);
+                    if (rule == null || (rule.length != 2 && rule.length != 3)) {
+                        throw new IllegalStateException("line " + linenbr + ", a key rule entry must contain either one or two ':' separators");
+                    }
+                    if (rule[0] == null || rule[0].length() == 0) {
+                        throw new IllegalStateException("line " + linenbr + ", a key rule key must not be empty");
+                    }
+                    String inc = rule[1];
+                    String exc = rule.length == 2 ? null : rule[2];
+                    if (rule[0].equals("host")          && (    (inc != null && host.matches(inc) == false)
+                                                             || (exc != null && host.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("hostclass")     && (    (inc != null && matches(hostclasses, inc) == false)
+                                                             || (exc != null && matches(hostclasses, exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("user")          && (    (inc != null && user.matches(inc) == false)
+                                                             || (exc != null && user.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("userclass")     && (    (inc != null && matches(userclasses, inc) == false)
+                                                             || (exc != null && matches(userclasses, exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("os")            && (    (inc != null && os.matches(inc) == false)
+                                                             || (exc != null && os.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("osversion")     && (    (inc != null && osversion.matches(inc) == false)
+                                                             || (exc != null && osversion.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("javaversion")   && (    (inc != null && javaversion.matches(inc) == false)
+                                                             || (exc != null && javaversion.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("configuration") && (    (inc != null && configuration_name.matches(inc) == false)
+                                                             || (exc != null && configuration_name.matches(exc) == true)
+                                                           )                                                                  ) { continue lines; }
+                    if (rule[0].equals("ui")) {
+                        boolean got_one_inc = false;
+                        boolean got_one_exc = false;
+                        for (String ui_name : configuration_ui_name.split(":")) {
+                            got_one_inc = got_one_inc || (inc == null || ui_name.matches(inc));
+                            got_one_exc = (exc != null && ui_name.matches(exc));
+                            if (got_one_exc) { break; }
+                        }
+                        if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
+                    }
+                    if (rule[0].equals("db")) {
+                        boolean got_one_inc = false;
+                        boolean got_one_exc = false;
+                        for (String db_name : configuration_db_name.split(":")) {
+                            got_one_inc = got_one_inc || (inc == null || db_name.matches(inc));
+                            got_one_exc = (exc != null && db_name.matches(exc));
+                            if (got_one_exc) { break; }
+                        }
+                        if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
+                    }
+                    if (rule[0].equals("variants")) {
+                        boolean got_one_inc = false;
+                        boolean got_one_exc = false;
+                        for (String variant : variants) {
+                            got_one_inc = got_one_inc || (inc == null || variant.matches(inc));
+                            got_one_exc = (exc != null && variant.matches(exc));
+                            if (got_one_exc) { break; }
+                        }
+                        if ( ! got_one_inc || got_one_exc)                                                                      { continue lines; }
+                    }
+                }
+            }
+            if (keyval[1] != null && keyval[1].isEmpty() == false) {
+                for (String variant : keyval[1].split(":")) {
+                    if (variant != null && variant.isEmpty() == false && duplicates.contains(variant) == false) {
+                        variants.add(variant);
+                        duplicates.add(variant);
+                    }
+                }
+            }
+        }
+    }
+
+    protected boolean matches(Vector<String> strings, String regexp) {
+        if (strings != null && regexp != null) {
+            for (String string : strings) {
+                if (string.matches(regexp)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}